@@ -0,0 +1,140 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+import core.Crawler;
+import core.Fragment;
+import core.LookupCache;
+
+// メモリ上の合成グラフに対する Crawler の主な処理の所要時間．
+// 1 回ごとに新しい Crawler を作るので，前の回のキャッシュは効かない．
+//   java -jar target/benchmarks.jar -p fanOut=8 -p latencyMillis=50
+// 割り当て量と GC 時間は -prof gc で見る
+//   java -jar target/benchmarks.jar expand -p latencyMillis=0 -prof gc
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrawlerBenchmark {
+
+	@Param({ "4" })
+	public int fanOut;
+
+	@Param({ "3" })
+	public int depth;
+
+	@Param({ "0.1" })
+	public double cycleRatio;
+
+	@Param({ "5" })
+	public int hierarchyDepth;
+
+	// リクエストごとに足す遅延．WAN 越しの往復を模す
+	@Param({ "0", "20" })
+	public long latencyMillis;
+
+	@Param({ "4" })
+	public int parallelism;
+
+	private SyntheticGraph graph;
+	private LocalEndpoint  endpoint;
+
+	// extractTypeIn, inferSuperClassIn の入力
+	private Model traced;
+	private Model typed;
+
+	// 1 度 expand して埋めたキャッシュ．expandWarm では問い合わせがほぼ無くなり，
+	// 結果をまとめる側の割り当てだけが残る
+	private LookupCache warm;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		graph    = new SyntheticGraph(fanOut, depth, cycleRatio, hierarchyDepth, 42);
+		endpoint = new LocalEndpoint(graph.getModel(), 0);
+
+		traced = newCrawler().tracePropertyPathFrom( graph.getRoot(), depth );
+		typed  = newCrawler().extractTypeIn(traced);
+
+		warm = new LookupCache(LookupCache.DEFAULT_MAX_TRIPLES);
+		expandWith(warm);
+
+		endpoint = new LocalEndpoint(graph.getModel(), latencyMillis);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		log.info("requests: {}", endpoint.requestCount());
+	}
+
+	private Crawler newCrawler() {
+		return endpoint.createCrawler(parallelism);
+	}
+
+	@Benchmark
+	public Model tracePropertyPath() {
+		return newCrawler().tracePropertyPathFrom( graph.getRoot(), depth );
+	}
+
+	@Benchmark
+	public Model extractType() {
+		return newCrawler().extractTypeIn(traced);
+	}
+
+	@Benchmark
+	public Model inferSuperClass() {
+		return newCrawler().inferSuperClassIn(typed);
+	}
+
+	@Benchmark
+	public Model expand() {
+		Fragment fragment = Fragment.from( newCrawler() );
+		fragment.expand( graph.getRoot().getURI(), depth );
+
+		return fragment.getModel();
+	}
+
+	@Benchmark
+	public Model expandWarm() {
+		return expandWith(warm);
+	}
+
+	private Model expandWith(LookupCache cache) {
+		Crawler crawler = newCrawler();
+		crawler.setLookupCache(cache);
+
+		Fragment fragment = Fragment.from(crawler);
+		fragment.expand( graph.getRoot().getURI(), depth );
+
+		return fragment.getModel();
+	}
+
+	@Benchmark
+	public Model expandPipelined() {
+		Fragment fragment = Fragment.from( newCrawler() );
+		fragment.setPipelined(true);
+		fragment.expand( graph.getRoot().getURI(), depth );
+
+		return fragment.getModel();
+	}
+}
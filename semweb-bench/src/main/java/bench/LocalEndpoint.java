@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.RequiredArgsConstructor;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+
+import core.Crawler;
+
+// メモリ上の Model をエンドポイントの代わりにする．
+// latencyMillis を指定すると，リクエストごとに往復の遅延を模して待つ
+@RequiredArgsConstructor
+public class LocalEndpoint {
+
+	private final Model model;
+	private final long  latencyMillis;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	public long requestCount() {
+		return requests.get();
+	}
+
+	// 呼ぶたびにキャッシュが空の Crawler を作る
+	public Crawler createCrawler(int parallelism) {
+		Crawler crawler = new Crawler("local") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				requests.incrementAndGet();
+				delay();
+
+				return QueryExecutionFactory.create( insertPrefixList(query), model );
+			}
+		};
+		crawler.setParallelism(parallelism);
+
+		return crawler;
+	}
+
+	private void delay() {
+		if ( latencyMillis <= 0 ) {
+			return ;
+		}
+
+		try {
+			Thread.sleep(latencyMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
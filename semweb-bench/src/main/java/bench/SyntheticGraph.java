@@ -0,0 +1,92 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import lombok.Getter;
+import lombok.val;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+// ベンチマーク用の合成グラフ．root から fanOut 本ずつ depth 段の木を作り，
+// cycleRatio の割合で既に作ったノードへ戻る辺を足す．
+// 各ノードは長さ hierarchyDepth の subClassOf の鎖の先頭のクラスを型に持つ．
+// 乱数の種を固定するので，同じ引数からは同じグラフができる
+public class SyntheticGraph {
+
+	private static final String NAME_SPACE = "http://www.example.org/bench/";
+
+	private static final int PROPERTIES = 8;
+	private static final int CLASSES    = 16;
+
+	@Getter
+	private final Model    model = ModelFactory.createDefaultModel();
+	@Getter
+	private final Resource root  = node(0);
+
+	public SyntheticGraph(int fanOut, int depth, double cycleRatio, int hierarchyDepth, long seed) {
+		val random = new Random(seed);
+
+		createSchema(hierarchyDepth);
+
+		val nodes = new ArrayList<Resource>();
+		nodes.add(root);
+		List<Resource> level = new ArrayList<>(nodes);
+		for ( int d = 0; d < depth; d++ ) {
+			val next = new ArrayList<Resource>();
+			for ( final Resource parent : level ) {
+				for ( int i = 0; i < fanOut; i++ ) {
+					val child = node( nodes.size() );
+					nodes.add(child);
+					next.add(child);
+					model.add( parent, property( random.nextInt(PROPERTIES) ), child );
+				}
+			}
+			level = next;
+		}
+
+		for ( final Resource node : nodes ) {
+			model.add( node, RDF.type, type( random.nextInt(CLASSES), 0 ) );
+
+			if ( random.nextDouble() < cycleRatio ) {
+				val target = nodes.get( random.nextInt(nodes.size()) );
+				model.add( node, property( random.nextInt(PROPERTIES) ), target );
+			}
+		}
+	}
+
+	private void createSchema(int hierarchyDepth) {
+		val top = ResourceFactory.createProperty( NAME_SPACE + "related" );
+
+		for ( int i = 0; i < PROPERTIES; i++ ) {
+			model.add( property(i), RDFS.subPropertyOf, top );
+			model.add( property(i), RDFS.domain, type(i % CLASSES, hierarchyDepth - 1) );
+			model.add( property(i), RDFS.range,  type((i + 1) % CLASSES, hierarchyDepth - 1) );
+		}
+
+		for ( int c = 0; c < CLASSES; c++ ) {
+			for ( int level = 0; level + 1 < hierarchyDepth; level++ ) {
+				model.add( type(c, level), RDFS.subClassOf, type(c, level + 1) );
+			}
+		}
+	}
+
+	private static Resource node(int i) {
+		return ResourceFactory.createResource( NAME_SPACE + "node" + i );
+	}
+
+	private static Property property(int i) {
+		return ResourceFactory.createProperty( NAME_SPACE + "p" + i );
+	}
+
+	private static Resource type(int chain, int level) {
+		return ResourceFactory.createResource( NAME_SPACE + "C" + chain + "_" + level );
+	}
+}
@@ -0,0 +1,11 @@
+package core;
+
+// EndpointClient に決めた問い合わせ数か時間を使い切った
+public class BudgetExhaustedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public BudgetExhaustedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,415 @@
+package core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import lombok.Value;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+
+import com.google.common.io.ByteStreams;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+// クロールの途中状態をディレクトリに保存する．
+// 増える一方のもの (トリプル，展開済みノード，段階ごとの解決済みリソース) は追記するだけにし，
+// 小さいもの (frontier) は commit のたびに番号付きのファイルに書く．
+// 段階ごとの未処理トリプルは写さず，triples.nt の中の範囲として state に書く．
+// state.properties を rename で置き換えた時点で commit が確定する．
+// 追記したファイルは state に記録した長さまでが有効で，open するときに切り詰める (記録の無いものは消す)
+@Slf4j
+public class Checkpoint implements Closeable {
+
+	private static final String STATE   = "state.properties";
+	private static final String TRIPLES = "triples.nt";
+	private static final String VISITED = "visited.txt";
+
+	@Value
+	public static class State {
+		Resource            seed;
+		int                 depth;
+		Model               triples;
+		Set<Resource>       visited;
+		Set<Resource>       frontier;
+		List<Set<Resource>> resolved;
+		List<Model>         pending;
+	}
+
+	private final Path directory;
+	private final long intervalMillis;
+
+	// triples.nt の start バイト目から end バイト目の前まで
+	@Value
+	public static class Range {
+		long start;
+		long end;
+	}
+
+	private final OutputStream         triples;
+	private final Writer               visited;
+	private final Map<Integer, Writer> resolved = new HashMap<>();
+
+	// 段階ごとの，渡したがまだ使い終えていない Model の範囲 (渡した順)
+	private final Map<Integer, Deque<List<Range>>> pending = new HashMap<>();
+
+	// 最後に確定した state (create したときは空)
+	private final Properties committed;
+
+	private long triplesLength;
+
+	private long sequence;
+	private long lastCommit = System.currentTimeMillis();
+
+	private Checkpoint(Path directory, long intervalMillis, Properties committed) throws IOException {
+		this.directory      = directory;
+		this.intervalMillis = intervalMillis;
+		this.committed      = committed;
+		this.sequence       = Long.parseLong( committed.getProperty("sequence", "0") );
+
+		this.triples = Files.newOutputStream( directory.resolve(TRIPLES),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+		this.triplesLength = Files.size( directory.resolve(TRIPLES) );
+		this.visited = Files.newBufferedWriter( directory.resolve(VISITED), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+	}
+
+	// 空のチェックポイントを作る (前のものは消す)
+	public static Checkpoint create(Path directory, long intervalMillis) throws IOException {
+		Files.createDirectories(directory);
+		try ( val files = Files.list(directory) ) {
+			for ( final Path file : (Iterable<Path>) files::iterator ) {
+				Files.delete(file);
+			}
+		}
+
+		return new Checkpoint(directory, intervalMillis, new Properties());
+	}
+
+	// 前回の commit の続きから書き足せるように開く．無ければ空で作る
+	public static Checkpoint open(Path directory, long intervalMillis) throws IOException {
+		val state = readState(directory);
+		if ( !state.isPresent() ) {
+			return create(directory, intervalMillis);
+		}
+
+		for ( final String name : state.get().stringPropertyNames() ) {
+			if ( name.startsWith("length.") ) {
+				truncate( directory.resolve( name.substring("length.".length()) ),
+						Long.parseLong( state.get().getProperty(name) ) );
+			}
+		}
+		// commit の後に作られた追記先は，中身がすべて確定していない
+		try ( val files = Files.list(directory) ) {
+			for ( final Path file : (Iterable<Path>) files::iterator ) {
+				val name = file.getFileName().toString();
+				if ( isJournal(name) && !state.get().containsKey("length." + name) ) {
+					Files.delete(file);
+				}
+			}
+		}
+
+		return new Checkpoint( directory, intervalMillis, state.get() );
+	}
+
+	private static boolean isJournal(String name) {
+		return name.startsWith("resolved-");
+	}
+
+	private static Optional<Properties> readState(Path directory) throws IOException {
+		val file = directory.resolve(STATE);
+		if ( !Files.exists(file) ) {
+			return Optional.empty();
+		}
+
+		val properties = new Properties();
+		try ( val in = Files.newBufferedReader(file, StandardCharsets.UTF_8) ) {
+			properties.load(in);
+		}
+
+		return Optional.of(properties);
+	}
+
+	private static void truncate(Path file, long length) throws IOException {
+		if ( length == 0 ) {
+			Files.deleteIfExists(file);
+			return ;
+		}
+
+		try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE) ) {
+			channel.truncate(length);
+		}
+	}
+
+	// 書き足したトリプルの範囲を返す．段階に渡すなら recordPending に渡す
+	public Range recordTriples(Model model) {
+		val bytes = new ByteArrayOutputStream();
+		model.write(bytes, "N-TRIPLES");
+		try {
+			bytes.writeTo(triples);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		val range = new Range( triplesLength, triplesLength + bytes.size() );
+		triplesLength = range.getEnd();
+
+		return range;
+	}
+
+	public void recordVisited(Set<Resource> nodes) {
+		write( visited, nodes );
+	}
+
+	public void recordResolved(int phase, Set<Resource> items) {
+		write( resolved.computeIfAbsent(phase, this::openResolved), items );
+	}
+
+	private Writer openResolved(int phase) {
+		try {
+			return Files.newBufferedWriter( directory.resolve( resolvedName(phase) ), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String resolvedName(int phase) {
+		return "resolved-" + phase + ".txt";
+	}
+
+	// phase 番目の段階に range のトリプルを渡した．Phase.offer と同じく，空の Model は渡さなかったものとする
+	public void recordPending(int phase, Range range) {
+		if ( range.getStart() < range.getEnd() ) {
+			pendingOf(phase).add( Collections.singletonList(range) );
+		}
+	}
+
+	// phase 番目の段階が，渡された Model を先頭から count 個使い終えた
+	public void recordConsumed(int phase, int count) {
+		val ranges = pendingOf(phase);
+		for ( int i = 0; i < count; i++ ) {
+			ranges.remove();
+		}
+	}
+
+	// 最後に確定した未処理トリプルは，restore で 1 つの Model として段階に渡る
+	private Deque<List<Range>> pendingOf(int phase) {
+		return pending.computeIfAbsent( phase, i -> {
+			Deque<List<Range>> ranges = new ArrayDeque<>();
+			List<Range> restored = parseRanges( committed.getProperty( "pending." + i, "" ) );
+			if ( !restored.isEmpty() ) {
+				ranges.add(restored);
+			}
+			return ranges;
+		});
+	}
+
+	// 隣り合う範囲はつなぐ
+	private static String formatRanges(Collection<List<Range>> ranges) {
+		val merged = new ArrayList<Range>();
+		for ( final List<Range> list : ranges ) {
+			for ( final Range range : list ) {
+				Range last = merged.isEmpty() ? null : merged.get( merged.size() - 1 );
+				if ( last != null && last.getEnd() == range.getStart() ) {
+					merged.set( merged.size() - 1, new Range( last.getStart(), range.getEnd() ) );
+				} else {
+					merged.add(range);
+				}
+			}
+		}
+
+		return merged.stream()
+				.map    ( r -> r.getStart() + "-" + r.getEnd() )
+				.collect( Collectors.joining(",") );
+	}
+
+	private static List<Range> parseRanges(String text) {
+		val ranges = new ArrayList<Range>();
+		for ( final String range : text.split(",") ) {
+			if ( !range.isEmpty() ) {
+				val bounds = range.split("-");
+				ranges.add( new Range( Long.parseLong(bounds[0]), Long.parseLong(bounds[1]) ) );
+			}
+		}
+
+		return ranges;
+	}
+
+	// 空白ノードは問い合わせに使えないので記録しない
+	private static void write(Writer out, Set<Resource> resources) {
+		try {
+			for ( final Resource resource : resources ) {
+				if ( resource.isURIResource() ) {
+					out.write( resource.getURI() );
+					out.write( '\n' );
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// 前回から intervalMillis 経っていれば (force なら必ず) ここまでの状態を確定させる．phases は段階の数
+	public void commit(Resource seed, int depth, Set<Resource> frontier, int phases, boolean force) {
+		if ( !force && System.currentTimeMillis() - lastCommit < intervalMillis ) {
+			return ;
+		}
+
+		try {
+			triples.flush();
+			visited.flush();
+			for ( final Writer out : resolved.values() ) {
+				out.flush();
+			}
+
+			val next = sequence + 1;
+			val state = new Properties();
+			state.setProperty( "seed",     seed.getURI()          );
+			state.setProperty( "depth",    String.valueOf(depth)  );
+			state.setProperty( "sequence", String.valueOf(next)   );
+			state.setProperty( "phases",   String.valueOf(phases) );
+			// まだ書いていない段階の追記先も長さ 0 で記録し，次の commit までに書いた分を open で捨てられるようにする
+			for ( final String name : journalNames(phases) ) {
+				state.setProperty( "length." + name, String.valueOf( sizeOf( directory.resolve(name) ) ) );
+			}
+			for ( int i = 0; i < phases; i++ ) {
+				state.setProperty( "pending." + i, formatRanges( pendingOf(i) ) );
+			}
+
+			try ( val out = Files.newBufferedWriter( directory.resolve( frontierName(next) ), StandardCharsets.UTF_8 ) ) {
+				write( out, frontier );
+			}
+
+			val temp = directory.resolve(STATE + ".tmp");
+			try ( val out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8) ) {
+				state.store(out, null);
+			}
+			Files.move( temp, directory.resolve(STATE),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+
+			Files.deleteIfExists( directory.resolve( frontierName(sequence) ) );
+
+			sequence   = next;
+			lastCommit = System.currentTimeMillis();
+			log.debug("checkpoint {} at depth {}", sequence, depth);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static List<String> journalNames(int phases) {
+		val names = new ArrayList<String>();
+		names.add(TRIPLES);
+		names.add(VISITED);
+		for ( int i = 0; i < phases; i++ ) {
+			names.add( resolvedName(i) );
+		}
+
+		return names;
+	}
+
+	private static long sizeOf(Path file) throws IOException {
+		return Files.exists(file) ? Files.size(file) : 0;
+	}
+
+	private static String frontierName(long sequence) {
+		return "frontier-" + sequence + ".txt";
+	}
+
+	// 最後に確定した状態を読み込む
+	public Optional<State> restore() {
+		try {
+			val properties = readState(directory);
+			if ( !properties.isPresent() ) {
+				return Optional.empty();
+			}
+
+			val state  = properties.get();
+			val phases = Integer.parseInt( state.getProperty("phases") );
+
+			val resolvedSets = new ArrayList<Set<Resource>>();
+			val pendingModels = new ArrayList<Model>();
+			for ( int i = 0; i < phases; i++ ) {
+				resolvedSets.add( readResources( directory.resolve( resolvedName(i) ) ) );
+				val model = ModelFactory.createDefaultModel();
+				for ( final Range range : parseRanges( state.getProperty( "pending." + i, "" ) ) ) {
+					read( model, directory.resolve(TRIPLES), range.getStart(), range.getEnd() );
+				}
+				pendingModels.add(model);
+			}
+
+			return Optional.of( new State(
+					ResourceFactory.createResource( state.getProperty("seed") ),
+					Integer.parseInt( state.getProperty("depth") ),
+					read( ModelFactory.createDefaultModel(), directory.resolve(TRIPLES), 0, Long.MAX_VALUE ),
+					readResources( directory.resolve(VISITED) ),
+					readResources( directory.resolve( frontierName(sequence) ) ),
+					resolvedSets,
+					pendingModels ) );
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// file の start バイト目から end バイト目の前までを model に読み込む
+	private static Model read(Model model, Path file, long start, long end) throws IOException {
+		try ( val in = Files.newInputStream(file) ) {
+			ByteStreams.skipFully(in, start);
+			RDFDataMgr.read(model, ByteStreams.limit(in, end - start), Lang.NTRIPLES);
+		}
+
+		return model;
+	}
+
+	private static Set<Resource> readResources(Path file) throws IOException {
+		val resources = new HashSet<Resource>();
+		if ( !Files.exists(file) ) {
+			return resources;
+		}
+
+		for ( final String line : Files.readAllLines(file, StandardCharsets.UTF_8) ) {
+			if ( !line.isEmpty() ) {
+				resources.add( ResourceFactory.createResource(line) );
+			}
+		}
+
+		return resources;
+	}
+
+	@Override
+	public void close() throws IOException {
+		triples.close();
+		visited.close();
+		for ( final Writer out : resolved.values() ) {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package core;
+
+import static core.NodeDictionary.NONE;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+
+// IRI やリテラルを NodeDictionary で int に置き換え，トリプルを int の配列で持つ Graph．
+// Fragment に溜めたトリプルは，追加と全件の走査，主語・目的語からの検索にしか使わないので，
+// 索引はその 2 つ (同じ主語・目的語を持つ行をつなぐリスト) だけにする．
+// 1 トリプルあたり int 6 つと重複検出の表の分で済む (GraphMem は 3 つの索引で数百バイト)
+public class CompactGraph extends GraphBase {
+
+	private static final double LOAD_FACTOR = 0.6;
+	private static final int    INITIAL     = 1024;
+
+	// ワイルドカードを表す id (NONE とも Node の id とも重ならない)
+	private static final int ANY = -2;
+
+	private final NodeDictionary dictionary = new NodeDictionary();
+
+	// 行ごとの主語・述語・目的語の id．消した行は主語を NONE にする
+	private int[] subjects   = new int[INITIAL];
+	private int[] predicates = new int[INITIAL];
+	private int[] objects    = new int[INITIAL];
+
+	// 同じ主語 (目的語) を持つ 1 つ前の行．NONE で終わる
+	private int[] nextBySubject = new int[INITIAL];
+	private int[] nextByObject  = new int[INITIAL];
+
+	// Node の id ごとの，その Node を主語 (目的語) に持つ最後の行
+	private int[] lastBySubject = filled(INITIAL);
+	private int[] lastByObject  = filled(INITIAL);
+
+	// 重複を見つけるための開番地法の表．行番号 + 1 を入れる (0 は空)
+	private int[] table = new int[INITIAL * 2];
+
+	// 使った行数 (消した行を含む) と，残っているトリプル数
+	private int rows;
+	private int size;
+
+	private static int[] filled(int length) {
+		int[] array = new int[length];
+		Arrays.fill(array, NONE);
+
+		return array;
+	}
+
+	@Override
+	public void performAdd(Triple t) {
+		int s = dictionary.intern( t.getSubject()   );
+		int p = dictionary.intern( t.getPredicate() );
+		int o = dictionary.intern( t.getObject()    );
+		if ( indexOf(s, p, o) != NONE ) {
+			return ;
+		}
+
+		ensureCapacity();
+
+		int row = rows++;
+		subjects[row]   = s;
+		predicates[row] = p;
+		objects[row]    = o;
+
+		nextBySubject[row] = lastBySubject[s];
+		lastBySubject[s]   = row;
+		nextByObject[row]  = lastByObject[o];
+		lastByObject[o]    = row;
+
+		insert(row);
+		size++;
+	}
+
+	@Override
+	public void performDelete(Triple t) {
+		int s = dictionary.lookup( t.getSubject()   );
+		int p = dictionary.lookup( t.getPredicate() );
+		int o = dictionary.lookup( t.getObject()    );
+		if ( s == NONE || p == NONE || o == NONE ) {
+			return ;
+		}
+
+		int row = indexOf(s, p, o);
+		if ( row != NONE ) {
+			subjects[row] = NONE;
+			size--;
+		}
+	}
+
+	@Override
+	public void clear() {
+		subjects      = new int[INITIAL];
+		predicates    = new int[INITIAL];
+		objects       = new int[INITIAL];
+		nextBySubject = new int[INITIAL];
+		nextByObject  = new int[INITIAL];
+		Arrays.fill( lastBySubject, NONE );
+		Arrays.fill( lastByObject,  NONE );
+		table = new int[INITIAL * 2];
+		rows  = 0;
+		size  = 0;
+
+		getEventManager().notifyEvent( this, GraphEvents.removeAll );
+	}
+
+	@Override
+	protected int graphBaseSize() {
+		return size;
+	}
+
+	@Override
+	protected boolean graphBaseContains(Triple t) {
+		if ( !t.isConcrete() ) {
+			return containsByFind(t);
+		}
+
+		int s = dictionary.lookup( t.getSubject()   );
+		int p = dictionary.lookup( t.getPredicate() );
+		int o = dictionary.lookup( t.getObject()    );
+
+		return s != NONE && p != NONE && o != NONE && indexOf(s, p, o) != NONE;
+	}
+
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+		int s = idOf( m.getMatchSubject()   );
+		int p = idOf( m.getMatchPredicate() );
+		int o = idOf( m.getMatchObject()    );
+		if ( s == NONE || p == NONE || o == NONE ) {
+			return NullIterator.instance();
+		}
+
+		if ( s != ANY ) {
+			return new Rows( lastBySubject[s], nextBySubject, s, p, o );
+		}
+		if ( o != ANY ) {
+			return new Rows( lastByObject[o], nextByObject, s, p, o );
+		}
+
+		return new Rows( rows - 1, null, s, p, o );
+	}
+
+	private int idOf(Node node) {
+		return node == null || node == Node.ANY ? ANY : dictionary.lookup(node);
+	}
+
+	// 後ろの行から順に返す．next が null なら 1 行ずつ，そうでなければ next をたどる
+	private class Rows extends NiceIterator<Triple> {
+
+		private final int[] next;
+		private final int   s, p, o;
+
+		private int row;
+		private int found = NONE;
+
+		Rows(int start, int[] next, int s, int p, int o) {
+			this.row  = start;
+			this.next = next;
+			this.s    = s;
+			this.p    = p;
+			this.o    = o;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while ( found == NONE && row >= 0 ) {
+				int current = row;
+				row = next == null ? row - 1 : next[row];
+				if ( matches(current) ) {
+					found = current;
+				}
+			}
+
+			return found != NONE;
+		}
+
+		private boolean matches(int r) {
+			return subjects[r] != NONE
+					&& ( s == ANY || subjects[r]   == s )
+					&& ( p == ANY || predicates[r] == p )
+					&& ( o == ANY || objects[r]    == o );
+		}
+
+		@Override
+		public Triple next() {
+			if ( !hasNext() ) {
+				throw new NoSuchElementException();
+			}
+
+			int r = found;
+			found = NONE;
+
+			return Triple.create( dictionary.node(subjects[r]),
+					dictionary.node(predicates[r]), dictionary.node(objects[r]) );
+		}
+	}
+
+	private static int hash(int s, int p, int o) {
+		return NodeDictionary.spread( (s * 31 + p) * 31 + o );
+	}
+
+	private int indexOf(int s, int p, int o) {
+		int mask = table.length - 1;
+		for ( int i = hash(s, p, o) & mask; table[i] != 0; i = (i + 1) & mask ) {
+			int row = table[i] - 1;
+			if ( subjects[row] == s && predicates[row] == p && objects[row] == o ) {
+				return row;
+			}
+		}
+
+		return NONE;
+	}
+
+	private void insert(int row) {
+		int mask = table.length - 1;
+		int i = hash( subjects[row], predicates[row], objects[row] ) & mask;
+		while ( table[i] != 0 ) {
+			i = (i + 1) & mask;
+		}
+		table[i] = row + 1;
+	}
+
+	private void ensureCapacity() {
+		if ( rows == subjects.length ) {
+			int capacity = rows * 2;
+			subjects      = Arrays.copyOf( subjects,      capacity );
+			predicates    = Arrays.copyOf( predicates,    capacity );
+			objects       = Arrays.copyOf( objects,       capacity );
+			nextBySubject = Arrays.copyOf( nextBySubject, capacity );
+			nextByObject  = Arrays.copyOf( nextByObject,  capacity );
+		}
+
+		if ( dictionary.size() > lastBySubject.length ) {
+			lastBySubject = grow( lastBySubject, dictionary.size() );
+			lastByObject  = grow( lastByObject,  dictionary.size() );
+		}
+
+		// 消した行は入れ直さない
+		if ( rows + 1 > table.length * LOAD_FACTOR ) {
+			table = new int[ table.length * 2 ];
+			for ( int row = 0; row < rows; row++ ) {
+				if ( subjects[row] != NONE ) {
+					insert(row);
+				}
+			}
+		}
+	}
+
+	private static int[] grow(int[] array, int atLeast) {
+		int length = Math.max( array.length * 2, atLeast );
+		int[] grown = Arrays.copyOf( array, length );
+		Arrays.fill( grown, array.length, length, NONE );
+
+		return grown;
+	}
+}
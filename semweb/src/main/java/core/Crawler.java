@@ -1,30 +1,63 @@
 package core;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.val;
 import lombok.extern.slf4j.Slf4j;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.impl.PrefixMappingImpl;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import com.hp.hpl.jena.sparql.syntax.ElementGroup;
+import com.hp.hpl.jena.sparql.syntax.ElementSubQuery;
 import com.hp.hpl.jena.vocabulary.RDFS;
 
-@AllArgsConstructor
+@RequiredArgsConstructor
 @Slf4j
 public class Crawler {
 
+	public static final int DEFAULT_PARALLELISM = 4;
+	public static final int DEFAULT_BATCH_SIZE  = 100;
+
+	private static final int UNBOUNDED   = Integer.MAX_VALUE;
+	private static final int BAD_REQUEST = 400;
+
 	private static final String PREFIX_LIST = concat(
 			"prefix rdf:  <http://www.w3.org/1999/02/22-rdf-syntax-ns#>",
 			"prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> ");
@@ -41,8 +74,66 @@ public class Crawler {
 		return bulider.toString();
 	}
 
+	@Getter
 	private final String endpointURL;
 
+	// 同時にエンドポイントへ投げるリクエスト数の上限
+	@Setter
+	private int parallelism = DEFAULT_PARALLELISM;
+
+	// VALUES 句 1 つにまとめるリソース数．エンドポイントに拒否されると縮む
+	@Setter
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+	// subClassOf, subPropertyOf の閉包を p* で 1 度に取るか．
+	// 非対応のエンドポイントでは false に落ちる
+	@Setter
+	private volatile boolean usePropertyPaths = true;
+
+	// tracePropertyPathFrom で 1 回の問い合わせで辿る段数．1 なら 1 段ずつ CONSTRUCT で問い合わせる．
+	// 2 以上なら各段を UNION でつないだ SELECT で問い合わせ，失敗すると 1 に落ちる
+	@Setter
+	private volatile int hops = 1;
+
+	// hops が 2 以上のときの 1 ページの行数．0 なら LIMIT を付けない
+	@Setter
+	private int pageSize = 0;
+
+	// エンドポイントが 1 回の結果を打ち切る行数 (DBpedia なら 10000)．0 なら打ち切られないとみなす
+	@Setter
+	private int resultLimit = 0;
+
+	// true なら結果の形式を選び (N-Triples, SPARQL JSON を優先)，応答のバイト数を形式ごとに数える．
+	// false なら Jena の既定の問い合わせ方を使う
+	@Setter
+	private boolean negotiate = true;
+
+	// negotiate のとき，gzip, deflate で圧縮した応答を受け付けるか
+	@Setter
+	private boolean compress = true;
+
+	// tracePropertyPathFrom で辿る述語，ハブと frontier の上限
+	@Setter
+	private TraversalPolicy traversalPolicy = new TraversalPolicy();
+
+	// null ならキャッシュしない
+	@Setter
+	private ResponseCache responseCache;
+
+	@Getter @Setter
+	private LookupCache lookupCache = new LookupCache(LookupCache.DEFAULT_MAX_TRIPLES);
+
+	// エンドポイントへのリクエストはすべてここを通す
+	@Getter @Setter
+	private EndpointClient client = EndpointClient.unlimited();
+
+	@Getter @Setter
+	private Metrics metrics = new Metrics();
+
+	// 辿ったクラス・プロパティの階層と domain, range
+	@Getter
+	private final RdfsClosure rdfsClosure = new RdfsClosure();
+
 	@VisibleForTesting
 	public String insertPrefixList(String query) {
 		return PREFIX_LIST + query;
@@ -53,168 +144,817 @@ public class Crawler {
 		log.trace(query);
 
 		val withPrefix = insertPrefixList(query);
+		QueryExecution execution = negotiate
+				? new NegotiatingQueryEngine(endpointURL, withPrefix, compress)
+				: QueryExecutionFactory.sparqlService(endpointURL, withPrefix);
+		if ( client.getTimeoutMillis() > 0 ) {
+			execution.setTimeout( client.getTimeoutMillis() );
+		}
+
+		return execution;
+	}
 
-		return QueryExecutionFactory.sparqlService(endpointURL, withPrefix);
+	private Model executeAsConstruct(QueryKind kind, String query) {
+		return executeForModel( kind, query, QueryExecution::execConstruct );
 	}
 
-	private Model executeAsConstruct(String query) {
-		return createQuery(query).execConstruct();
+	// ?s ?p ?o を選ぶ SELECT の結果をトリプルとして返す
+	private Model executeAsSelect(QueryKind kind, String query) {
+		return executeForModel( kind, query, Crawler::triplesOf );
+	}
+
+	private static Model triplesOf(QueryExecution execution) {
+		val model = ModelFactory.createDefaultModel();
+		val results = execution.execSelect();
+		while ( results.hasNext() ) {
+			val row = results.next();
+			val predicate = ResourceFactory.createProperty( row.getResource("p").getURI() );
+			model.add( row.getResource("s"), predicate, row.get("o") );
+		}
+
+		return model;
+	}
+
+	private Model executeForModel(QueryKind kind, String query, Function<QueryExecution, Model> execute) {
+		if ( responseCache != null ) {
+			val cached = responseCache.getModel(endpointURL, query);
+			if ( cached.isPresent() ) {
+				metrics.recordResponseCacheHit(kind);
+				return cached.get();
+			}
+		}
+
+		val result = client.execute( () -> {
+			long start = System.nanoTime();
+			QueryExecution execution = createQuery(query);
+			Model model = execute.apply(execution);
+			long bytes = recordWire( execution, () -> Metrics.estimateBytes(model) );
+			metrics.recordQuery( kind, System.nanoTime() - start, model.size(), bytes );
+			return model;
+		});
+		if ( responseCache != null ) {
+			responseCache.putModel(endpointURL, query, result);
+		}
+
+		return result;
+	}
+
+	// 応答のバイト数．NegotiatingQueryEngine なら形式ごとの量と読み込み時間も記録する．
+	// ほかの問い合わせ方では応答を測れないので，estimate で見積もる
+	private long recordWire(QueryExecution execution, LongSupplier estimate) {
+		if ( !(execution instanceof NegotiatingQueryEngine) ) {
+			return estimate.getAsLong();
+		}
+
+		val engine = (NegotiatingQueryEngine) execution;
+		metrics.recordFormat( engine.getContentType(), engine.getWireBytes(), engine.getParseNanos() );
+
+		return engine.getWireBytes();
 	}
 
 	private String normalize(Resource r) {
 		return "<" + r + ">";
 	}
 	
-	public Model inferSubClassOf(Resource superClass) {
-		return tracePathReversely(RDFS.subClassOf, superClass);
+	private String values(Collection<Resource> resources) {
+		return resources.stream()
+				.map    ( r -> normalize(r) )
+				.collect( Collectors.joining(" ") );
 	}
 	
-	public boolean exists(Resource resource) {
-		val query = concat(
-				"ASK {",
-				"     { @r ?p ?o . } UNION",
-				"     { ?s @r ?o . } UNION",
-				"     { ?s ?p @r . }",
-				"}"
-				).replace("@r", normalize(resource));
+	// 同じ集合からは同じクエリができるように並べておく (キャッシュに当たるように)
+	private List<List<Resource>> partition(Set<Resource> resources) {
+		val sorted = resources.stream()
+				.sorted ( Comparator.comparing( r -> r.toString() ) )
+				.collect( Collectors.toList() );
 
-		return createQuery(query).execAsk();
+		return Lists.partition( sorted, Math.max(1, batchSize) );
 	}
+	
+	// template 中の @values を VALUES 句の中身に置き換えて 1 回で問い合わせる．
+	// エンドポイントに拒否されたら半分に割って投げ直し，以降のバッチも小さくする
+	private Model executeBatch(QueryKind kind, String template, List<Resource> batch) {
+		try {
+			val query = template.replace("@values", values(batch));
+			return executeComplete( q -> executeAsConstruct(kind, q),
+					(size, offset) -> constructPage(query, size, offset), query );
+		} catch (QueryExceptionHTTP e) {
+			// 400 はクエリ自体の問題なので，小さくしても通らない
+			if ( batch.size() <= 1 || e.getResponseCode() == BAD_REQUEST ) {
+				throw e;
+			}
 
-	private Set<Resource> listInstanceIn(Model model) {
-		val subjects = model.listSubjects().toSet();
-		val objects  = model.listObjects().toSet().stream()
+			val half = batch.size() / 2;
+			batchSize = Math.min(batchSize, half);
+			log.warn("batch of {} resources failed ({}), retry with {}", batch.size(), e, half);
+
+			return Models.union( Arrays.asList(
+					executeBatch( kind, template, batch.subList(0, half) ),
+					executeBatch( kind, template, batch.subList(half, batch.size()) ) ) );
+		}
+	}
+	
+	// 結果がちょうど resultLimit 行なら打ち切られたとみなし，page で順序を決めたページに分けて初めから取り直す．
+	// 順序の無い 1 回目の結果は，どこまで返ったのか分からないので続きには使えない
+	private Model executeComplete(Function<String, Model> execute,
+			BiFunction<Integer, Long, String> page, String query) {
+
+		val result = execute.apply(query);
+		if ( resultLimit <= 0 || result.size() < resultLimit ) {
+			return result;
+		}
+
+		log.info("result reached the limit of {} rows, fetch again in pages", resultLimit);
+		return executeInPages( execute, page, resultLimit );
+	}
+	
+	// size 行ずつ OFFSET をずらして，足りないページが返るまで問い合わせる．
+	// 各ページはそのまま持ち，1 つのビューにして返す
+	private Model executeInPages(Function<String, Model> execute,
+			BiFunction<Integer, Long, String> page, int size) {
+
+		val pages = new ArrayList<Model>();
+		for ( long offset = 0; ; offset += size ) {
+			val result = execute.apply( page.apply(size, offset) );
+			pages.add(result);
+			if ( result.size() < size ) {
+				return Models.union(pages);
+			}
+		}
+	}
+	
+	// CONSTRUCT の WHERE 句を，テンプレートの変数を DISTINCT で選んで並べる副問い合わせにし，
+	// その size 行を offset から取る．変数の組が違えばトリプルも違うので，ページの行数とトリプル数が一致する
+	@VisibleForTesting
+	String constructPage(String query, int size, long offset) {
+		val construct = QueryFactory.create( insertPrefixList(query) );
+		val vars = new LinkedHashSet<Node>();
+		for ( final Triple triple : construct.getConstructTemplate().getTriples() ) {
+			Stream.of( triple.getSubject(), triple.getPredicate(), triple.getObject() )
+					.filter ( Node::isVariable )
+					.forEach( vars::add );
+		}
+
+		val select = new Query();
+		select.setQuerySelectType();
+		select.setDistinct(true);
+		select.setQueryPattern( construct.getQueryPattern() );
+		for ( final Node var : vars ) {
+			select.addResultVar(var);
+			select.addOrderBy(var, Query.ORDER_DEFAULT);
+		}
+		select.setLimit(size);
+		select.setOffset(offset);
+
+		val pattern = new ElementGroup();
+		pattern.addElement( new ElementSubQuery(select) );
+		construct.setQueryPattern(pattern);
+		// 接頭辞は createQuery が付け直す
+		construct.setPrefixMapping( new PrefixMappingImpl() );
+
+		return construct.serialize();
+	}
+	
+	// バッチを並行に問い合わせ，partition の順に 1 つのビューにまとめる
+	private Model constructInBatches(QueryKind kind, Set<Resource> resources, String template) {
+		return Models.union( Workers.map( partition(resources), parallelism, b -> executeBatch(kind, template, b) ) );
+	}
+	
+	// fetched を keyOf で分けて lookupCache に入れる．
+	// complete に含まれていて結果の無いリソースには空の Model を入れる
+	private Map<Resource, Model> memoize(QueryKind kind, Model fetched, Set<Resource> complete,
+			Function<Statement, Resource> keyOf) {
+
+		Map<Resource, Model> groups = new HashMap<>();
+		for ( final Resource resource : complete ) {
+			groups.put( resource, ModelFactory.createDefaultModel() );
+		}
+		for ( final Statement statement : fetched.listStatements().toList() ) {
+			groups.computeIfAbsent( keyOf.apply(statement), k -> ModelFactory.createDefaultModel() )
+					.add(statement);
+		}
+
+		groups.forEach( (resource, model) -> lookupCache.put(kind, resource, model) );
+
+		return groups;
+	}
+	
+	private Map<Resource, Model> lookup(QueryKind kind, Set<Resource> resources, String template,
+			Function<Statement, Resource> keyOf) {
+
+		return lookup( kind, resources, template, keyOf, m -> Collections.<Resource>emptySet() );
+	}
+	
+	private Map<Resource, Model> lookup(QueryKind kind, Set<Resource> resources, String template,
+			Function<Statement, Resource> keyOf, Function<Model, Set<Resource>> closedOver) {
+
+		return lookup( kind, resources, ms -> constructInBatches(kind, ms, template), keyOf, closedOver );
+	}
+	
+	// 分かっているものは lookupCache から返し，残りだけ fetch で問い合わせる．
+	// closedOver は，結果に辺がすべて含まれていると分かるリソース (閉包の問い合わせ用)
+	private Map<Resource, Model> lookup(QueryKind kind, Set<Resource> resources,
+			Function<Set<Resource>, Model> fetch,
+			Function<Statement, Resource> keyOf, Function<Model, Set<Resource>> closedOver) {
+
+		Map<Resource, Model> found = new HashMap<>();
+		Set<Resource> missing = new HashSet<>();
+		for ( final Resource resource : resources ) {
+			Model cached = lookupCache.getIfPresent(kind, resource);
+			if ( cached != null ) {
+				found.put(resource, cached);
+			} else {
+				missing.add(resource);
+			}
+		}
+
+		metrics.recordLookupCacheHits( kind, found.size() );
+
+		if ( !missing.isEmpty() ) {
+			val fetched  = fetch.apply(missing);
+			val complete = Sets.union( missing, closedOver.apply(fetched) );
+			found.putAll( memoize(kind, fetched, complete, keyOf) );
+		}
+
+		return found;
+	}
+	
+	// 渡されたノードをバッチに分け，バッチ単位で並行に問い合わせる
+	private Function<Set<Resource>, Map<Resource, Model>> inBatches(
+			Function<Set<Resource>, Map<Resource, Model>> lookup) {
+
+		return resources -> {
+			Map<Resource, Model> found = new HashMap<>();
+			Workers.map( partition(resources), parallelism, b -> lookup.apply( new HashSet<>(b) ) )
+					.forEach( found::putAll );
+			return found;
+		};
+	}
+	
+	// resource を問い合わせる先．FederatedCrawler が名前空間ごとに振り分けるために上書きする
+	Crawler crawlerFor(Resource resource) {
+		return this;
+	}
+	
+	// 問い合わせる先の Crawler すべて (自分を含む)
+	public List<Crawler> listCrawlers() {
+		return Collections.singletonList(this);
+	}
+	
+	// resources を問い合わせ先ごとに分け，それぞれの Crawler で fetch する．問い合わせ先が複数あれば並行に動かす．
+	// 結果はその問い合わせ先が受け持つリソースの分だけ返す (ほかの分は受け持つ先に問い合わせ直す)．
+	// 予算を使い切った問い合わせ先のリソースには，キャッシュに入れずに空の Model を返す
+	private Map<Resource, Model> dispatch(Set<Resource> resources,
+			BiFunction<Crawler, Set<Resource>, Map<Resource, Model>> fetch) {
+
+		return dispatch( resources, fetch, ConcurrentHashMap.newKeySet() );
+	}
+
+	// 予算を使い切って問い合わせなかったリソースを skipped に入れる
+	private Map<Resource, Model> dispatch(Set<Resource> resources,
+			BiFunction<Crawler, Set<Resource>, Map<Resource, Model>> fetch, Set<Resource> skipped) {
+
+		val groups = groupByOwner(resources);
+		// 問い合わせ先が 1 つならこのスレッドで問い合わせる
+		if ( groups.size() == 1 ) {
+			val group = groups.entrySet().iterator().next();
+			return fetchOwned( group.getKey(), group.getValue(), fetch, skipped );
+		}
+
+		Map<Resource, Model> found = new HashMap<>();
+		Workers.fanOut( groups.entrySet(), g -> fetchOwned( g.getKey(), g.getValue(), fetch, skipped ) )
+				.forEach( found::putAll );
+
+		return found;
+	}
+	
+	private Map<Crawler, Set<Resource>> groupByOwner(Collection<Resource> resources) {
+		Map<Crawler, Set<Resource>> groups = new LinkedHashMap<>();
+		for ( final Resource resource : resources ) {
+			groups.computeIfAbsent( crawlerFor(resource), c -> new HashSet<>() ).add(resource);
+		}
+
+		return groups;
+	}
+	
+	private Map<Resource, Model> fetchOwned(Crawler target, Set<Resource> resources,
+			BiFunction<Crawler, Set<Resource>, Map<Resource, Model>> fetch, Set<Resource> skipped) {
+
+		Map<Resource, Model> owned = new HashMap<>();
+		try {
+			fetch.apply(target, resources).forEach( (resource, model) -> {
+				if ( crawlerFor(resource) == target ) {
+					owned.put(resource, model);
+				}
+			});
+		} catch (BudgetExhaustedException e) {
+			log.warn("skip {} resources for {}: {}", resources.size(), target.endpointURL, e.getMessage());
+			for ( final Resource resource : resources ) {
+				owned.put( resource, ModelFactory.createDefaultModel() );
+			}
+			skipped.addAll(resources);
+		}
+
+		return owned;
+	}
+	
+	// Traversal に渡す fetch．問い合わせ先ごとに，その Crawler の大きさのバッチで問い合わせる
+	private Function<Set<Resource>, Map<Resource, Model>> routed(
+			BiFunction<Crawler, Set<Resource>, Map<Resource, Model>> lookup) {
+
+		return routed( lookup, ConcurrentHashMap.newKeySet() );
+	}
+
+	private Function<Set<Resource>, Map<Resource, Model>> routed(
+			BiFunction<Crawler, Set<Resource>, Map<Resource, Model>> lookup, Set<Resource> skipped) {
+
+		return resources -> dispatch( resources,
+				(c, rs) -> c.inBatches( b -> lookup.apply(c, b) ).apply(rs), skipped );
+	}
+	
+	private static Set<Resource> listObjectResourceIn(Model model) {
+		return model.listObjects().toSet().stream()
 				.filter ( o -> o.isURIResource() )
 				.map    ( o -> o.asResource()    )
 				.collect( Collectors.toSet()     );
+	}
+	
+	private static Set<Resource> listSubjectResourceIn(Model model) {
+		return model.listSubjects().toSet().stream()
+				.filter ( s -> s.isURIResource() )
+				.collect( Collectors.toSet()     );
+	}
+	
+	public Model inferSubClassOf(Resource superClass) {
+		return tracePathReversely(RDFS.subClassOf, Collections.singleton(superClass));
+	}
+	
+	public boolean exists(Resource resource) {
+		return existing( Collections.singleton(resource) ).contains(resource);
+	}
+
+	// 主語・述語・目的語のどこかに現れれば存在する．EXISTS は最初に見つかった枝で止まるので，
+	// 多くのリソースが当たる主語を先に調べる
+	private static final String EXISTENCE = concat(
+			"CONSTRUCT {",
+			"     ?r a rdfs:Resource .",
+			"} WHERE {",
+			"     VALUES ?r { @values }",
+			"   FILTER EXISTS {",
+			"     { ?r ?p ?o . } UNION",
+			"     { ?s ?r ?o . } UNION",
+			"     { ?s ?p ?r . }",
+			"   }",
+			"}");
+
+	// resources のうちエンドポイントにあるもの．問い合わせ先ごとに，まとめて確かめる
+	public Set<Resource> existing(Collection<Resource> resources) {
+		Set<Resource> found = new HashSet<>();
+		Workers.fanOut( groupByOwner(resources).entrySet(), g -> g.getKey().probe( g.getValue() ) )
+				.forEach( found::addAll );
+
+		return found;
+	}
+
+	// lookupCache で分かるものはそこから答え，残りはバッチごとに 1 回で問い合わせる．
+	// 無かったリソースも覚えておき，シードの打ち間違いなどを何度も問い合わせない
+	private Set<Resource> probe(Set<Resource> resources) {
+		Set<Resource> found   = new HashSet<>();
+		Set<Resource> missing = new HashSet<>();
+		for ( final Resource resource : resources ) {
+			Boolean known = lookupCache.getExistence(resource);
+			if ( known == null ) {
+				missing.add(resource);
+			} else if ( known ) {
+				found.add(resource);
+			}
+		}
+
+		metrics.recordLookupCacheHits( QueryKind.ASK, resources.size() - missing.size() );
+
+		if ( !missing.isEmpty() ) {
+			Set<Resource> fetched;
+			try {
+				fetched = constructInBatches(QueryKind.ASK, missing, EXISTENCE).listSubjects().toSet();
+			} catch (BudgetExhaustedException e) {
+				// 分からないので，あるものとして進める (キャッシュはしない)
+				log.warn("skip existence check of {} resources for {}: {}", missing.size(), endpointURL, e.getMessage());
+				found.addAll(missing);
+				return found;
+			}
+			for ( final Resource resource : missing ) {
+				lookupCache.putExistence( resource, fetched.contains(resource) );
+			}
+			found.addAll( Sets.intersection(missing, fetched) );
+		}
+
+		return found;
+	}
+
+	public Set<Resource> listInstanceIn(Model model) {
+		val subjects = model.listSubjects().toSet();
+		val objects  = listObjectResourceIn(model);
 		
 		return Sets.union(subjects, objects);
 	}
 	
 	public Model tracePropertyPathFrom(Resource subject, int depth) {
-		log.debug("depth = {}, {}", depth, subject);
-
-		if (depth <= 0) {
-			return ModelFactory.createDefaultModel();
+		return traversePropertyPathFrom(subject).expandTo(depth);
+	}
+	
+	// 起点から出る辺 (起点を ?s に置く) と，起点に入る辺 (起点を ?o に置く)
+	private static final String OUT_EDGES = "VALUES ?s { @values } ?s ?p ?o . FILTER(isURI(?o)) @filter";
+	private static final String IN_EDGES  = "VALUES ?o { @values } ?s ?p ?o . FILTER(isURI(?s)) @filter";
+	
+	// 両向きなら 1 つの問い合わせに UNION でまとめ，向きを足しても問い合わせの数は増やさない
+	private static String edgesOf(boolean out, boolean in) {
+		if ( out && in ) {
+			return "{ " + OUT_EDGES + " } UNION { " + IN_EDGES + " }";
 		}
 
-		val result = listDirectPathFrom(subject);
-		val rest = result.listObjects().toSet().stream()
-				.filter( o -> o.isURIResource() )
-				.map   ( o -> o.asResource() )
-				.map   ( o -> tracePropertyPathFrom(o, depth - 1) )
-				.reduce( ModelFactory.createDefaultModel(), (a, b) -> a.add(b) );
-
-		return result.add(rest);
+		return out ? OUT_EDGES : IN_EDGES;
 	}
 	
-	private Model listDirectPathFrom(Resource subject) {
-		val query = concat(
+	private static String pathQuery(boolean out, boolean in) {
+		return concat(
 				"CONSTRUCT {",
-				"     @s ?p ?o .",
+				"     ?s ?p ?o .",
 				"} WHERE {",
-				"     @s ?p ?o .",
+				"     " + edgesOf(out, in),
+				"}");
+	}
+	
+	// 辺 (両向きなら合わせて) が @max 本を超えるノード
+	private static String hubsQuery(boolean out, boolean in) {
+		val branches = new ArrayList<String>();
+		if ( out ) {
+			branches.add("{ ?x ?p ?n . FILTER(isURI(?n)) @filter }");
+		}
+		if ( in ) {
+			branches.add("{ ?n ?p ?x . FILTER(isURI(?n)) @filter }");
+		}
+
+		return concat(
+				"CONSTRUCT {",
+				"     ?x a rdfs:Resource .",
+				"} WHERE {",
+				"   { SELECT ?x WHERE {",
+				"       VALUES ?x { @values }",
+				"       " + String.join(" UNION ", branches),
+				"   } GROUP BY ?x HAVING (COUNT(*) > @max) }",
+				"}");
+	}
+	
+	// 呼び出し側で少しずつ深くできるように，途中状態ごと返す．
+	// 辿る向きと，向きごとの段数は traversalPolicy で決める
+	public Traversal traversePropertyPathFrom(Resource subject) {
+		val policy = traversalPolicy;
+		Function<Model, Set<Resource>> neighbours = policy.getDirection() == TraversalPolicy.Direction.OUT
+				? Crawler::listObjectResourceIn
+				: m -> Sets.union( listSubjectResourceIn(m), listObjectResourceIn(m) );
+
+		val traversal = new Traversal( Collections.singleton(subject),
+				(depth, remaining, nodes) -> routed( (c, ns) -> c.lookupEdges( ns,
+						policy.followsOut(depth), policy.followsIn(depth),
+						policy.outStepsFrom(depth, remaining) ) ).apply(nodes),
+				neighbours );
+		traversal.setMaxFrontier( policy.getMaxFrontier() );
+
+		return traversal;
+	}
+	
+	// 出る辺は PATH，入る辺は INBOUND としてキャッシュする．
+	// 両向きのときは片方でもキャッシュに無いノードを，両向きの 1 つの問い合わせで取り直す．
+	// steps は出る辺をこの先辿る段数で，出る辺だけなら hops とのうち少ない段数をまとめて問い合わせる
+	private Map<Resource, Model> lookupEdges(Set<Resource> nodes, boolean out, boolean in, int steps) {
+		if ( !out && !in ) {
+			Map<Resource, Model> none = new HashMap<>();
+			nodes.forEach( n -> none.put( n, ModelFactory.createDefaultModel() ) );
+			return none;
+		}
+		if ( !in ) {
+			return lookupPath(nodes, steps);
+		}
+		if ( !out ) {
+			return lookup( QueryKind.INBOUND, nodes, os -> fetchEdges(QueryKind.INBOUND, os, false, true),
+					Crawler::objectOf, m -> Collections.<Resource>emptySet() );
+		}
+
+		Map<Resource, Model> found = new HashMap<>();
+		Set<Resource> missing = new HashSet<>();
+		for ( final Resource node : nodes ) {
+			Model outbound = lookupCache.getIfPresent(QueryKind.PATH,    node);
+			Model inbound  = lookupCache.getIfPresent(QueryKind.INBOUND, node);
+			if ( outbound != null && inbound != null ) {
+				found.put( node, Models.union( Arrays.asList(outbound, inbound) ) );
+			} else {
+				missing.add(node);
+			}
+		}
+
+		metrics.recordLookupCacheHits( QueryKind.INBOUND, found.size() );
+
+		if ( !missing.isEmpty() ) {
+			val fetched = fetchEdges(QueryKind.PATH, missing, true, true);
+			Map<Resource, Model> outbound = memoize( QueryKind.PATH,
+					edgesFrom(fetched, missing, Statement::getSubject), missing, Statement::getSubject );
+			Map<Resource, Model> inbound  = memoize( QueryKind.INBOUND,
+					edgesFrom(fetched, missing, Crawler::objectOf),     missing, Crawler::objectOf );
+			for ( final Resource node : missing ) {
+				found.put( node, Models.union( Arrays.asList( outbound.get(node), inbound.get(node) ) ) );
+			}
+		}
+
+		return found;
+	}
+	
+	// 入る辺の起点 (目的語は URI に限っている)
+	private static Resource objectOf(Statement statement) {
+		return statement.getObject().asResource();
+	}
+	
+	// model のうち，keyOf が nodes に入る辺
+	private static Model edgesFrom(Model model, Set<Resource> nodes, Function<Statement, Resource> keyOf) {
+		val edges = ModelFactory.createDefaultModel();
+		model.listStatements().toList().stream()
+				.filter ( st -> nodes.contains( keyOf.apply(st) ) )
+				.forEach( edges::add );
+
+		return edges;
+	}
+	
+	// 出る辺は，辺の上限が無ければ hops 段ずつまとめて問い合わせられる (ただし残りの steps 段まで)．
+	// ハブの辺を数えるにはノードごとに問い合わせを分けるので，辺の上限があるときは 1 段ずつ辿る
+	private Map<Resource, Model> lookupPath(Set<Resource> subjects, int steps) {
+		val policy = traversalPolicy;
+		val k = Math.min( hops, steps );
+		if ( k > 1 && !policy.capsEdges() ) {
+			try {
+				return lookup( QueryKind.PATH, subjects, ss -> selectNeighbourhood(ss, k, policy), Statement::getSubject,
+						m -> withinHops(subjects, m, k - 1) );
+			} catch (QueryExceptionHTTP e) {
+				log.warn("{}-hop query failed ({}), fall back to one hop per query", k, e.toString());
+				hops = 1;
+			}
+		}
+
+		return lookup( QueryKind.PATH, subjects, ss -> fetchEdges(QueryKind.PATH, ss, true, false),
+				Statement::getSubject, m -> Collections.<Resource>emptySet() );
+	}
+	
+	// nodes の辺をまとめて問い合わせる．辺の上限があれば，先にハブを数えて除く．
+	// ハブは sampleHubs なら maxEdgesPerNode 本だけ取り，そうでなければ辺を取らない
+	private Model fetchEdges(QueryKind kind, Set<Resource> nodes, boolean out, boolean in) {
+		val policy = traversalPolicy;
+		val path   = pathQuery(out, in).replace( "@filter", policy.filterOf("?p") );
+		if ( !policy.capsEdges() ) {
+			return constructInBatches(kind, nodes, path);
+		}
+
+		val max  = policy.getMaxEdgesPerNode();
+		val hubs = constructInBatches( QueryKind.DEGREE, nodes,
+				hubsQuery(out, in).replace( "@filter", policy.filterOf("?p") ).replace( "@max", String.valueOf(max) ) )
+				.listSubjects().toSet();
+		if ( !hubs.isEmpty() ) {
+			log.info("{} hubs with more than {} edges: {}", hubs.size(), max, hubs);
+		}
+
+		val models = new ArrayList<Model>();
+		models.add( constructInBatches( kind, new HashSet<>( Sets.difference(nodes, hubs) ), path ) );
+		if ( policy.isSampleHubs() ) {
+			models.addAll( Workers.map( hubs, parallelism, h -> executeAsConstruct( kind,
+					path.replace( "@values", normalize(h) ) + " LIMIT " + max ) ) );
+		}
+
+		return Models.union(models);
+	}
+	
+	// 起点から hops 段以内にあるノードの，URI を目的語に持つ辺をまとめて選ぶ．
+	// j 段目の辺を 1 つの枝にし，枝ごとに VALUES を置く (外に置くと枝を先に評価するエンドポイントがある)．
+	// 途中の段の述語も policy で絞る
+	@VisibleForTesting
+	static String neighbourhoodQuery(int hops, TraversalPolicy policy) {
+		val branches = new ArrayList<String>();
+		for ( int j = 0; j < hops; j++ ) {
+			val branch = new StringBuilder("{ VALUES ?x0 { @values } ");
+			for ( int h = 1; h <= j; h++ ) {
+				branch.append( String.format("?x%d ?p%d ?x%d . FILTER(isURI(?x%d)) ", h - 1, h, h, h) );
+				branch.append( policy.filterOf("?p" + h) );
+			}
+			branch.append( String.format("?x%d ?p ?o . BIND(?x%d AS ?s) }", j, j) );
+			branches.add( branch.toString() );
+		}
+
+		return concat(
+				"SELECT DISTINCT ?s ?p ?o WHERE {",
+				String.join(" UNION ", branches),
 				"   FILTER(isURI(?o))",
-				"}"
-				).replace("@s", normalize(subject));
+				"   " + policy.filterOf("?p"),
+				"}");
+	}
+	
+	private Model selectNeighbourhood(Set<Resource> subjects, int hops, TraversalPolicy policy) {
+		val template = neighbourhoodQuery(hops, policy);
+
+		return Models.union( Workers.map( partition(subjects), parallelism,
+				b -> selectInPages( template.replace("@values", values(b)) ) ) );
+	}
+	
+	// pageSize が決まっていれば初めからページに分ける．ページの境目がずれないように並べる．
+	// ページがエンドポイントに打ち切られないように，resultLimit より大きくはしない
+	private Model selectInPages(String query) {
+		Function<String, Model> execute = q -> executeAsSelect(QueryKind.PATH, q);
+		BiFunction<Integer, Long, String> page = (size, offset) ->
+				query + " ORDER BY ?s ?p ?o LIMIT " + size + " OFFSET " + offset;
+
+		if ( pageSize <= 0 ) {
+			return executeComplete(execute, page, query);
+		}
+
+		return executeInPages( execute, page, resultLimit > 0 ? Math.min(pageSize, resultLimit) : pageSize );
+	}
+	
+	// from のうち model に辺のあるノードから，model の辺を hops 段までたどって届くノード．
+	// 問い合わせた起点から hops 段以内のノードは辺がすべて結果に含まれているので，辺が無ければ空だと分かる．
+	// lookupCache から返した起点は model に辺が無いので，空で上書きしないように起点にしない
+	private static Set<Resource> withinHops(Set<Resource> from, Model model, int hops) {
+		Set<Resource> frontier = from.stream()
+				.filter ( n -> model.contains(n, null) )
+				.collect( Collectors.toSet() );
+		Set<Resource> reached = new HashSet<>(frontier);
+		for ( int h = 0; h < hops && !frontier.isEmpty(); h++ ) {
+			Set<Resource> next = new HashSet<>();
+			for ( final Resource node : frontier ) {
+				model.listStatements(node, null, (RDFNode) null).toList().stream()
+						.map    ( Statement::getObject   )
+						.filter ( o -> o.isURIResource() )
+						.map    ( o -> o.asResource()    )
+						.filter ( reached::add )
+						.forEach( next::add );
+			}
+			frontier = next;
+		}
 
-		return createQuery(query).execConstruct();
+		return reached;
 	}
 
-	private Model inferSuperPropertyOf(Resource subProperty) {
-		return tracePath(subProperty, RDFS.subPropertyOf);
+	public Model inferSuperPropertyOf(Set<Resource> subProperties) {
+		return tracePath(QueryKind.SUPER_PROPERTY, subProperties, rdfsClosure.getProperties());
 	}
 
-	private Model inferSuperClassOf(Resource subClass) {
-		return tracePath(subClass, RDFS.subClassOf);
+	public Model inferSuperClassOf(Set<Resource> subClasses) {
+		return tracePath(QueryKind.SUPER_CLASS, subClasses, rdfsClosure.getClasses());
+	}
+	
+	// 辿った階層は hierarchy に溜め，辺の揃っている範囲は問い合わせずに手元で閉包を作る
+	private Model tracePath(QueryKind kind, Set<Resource> bases, Hierarchy hierarchy) {
+		val known = hierarchy.closureOf(bases);
+		if ( known != null ) {
+			metrics.recordLookupCacheHits( kind, bases.size() );
+			return known;
+		}
+
+		Set<Resource> skipped = ConcurrentHashMap.newKeySet();
+		val traced = tracePath( kind, bases, hierarchy.getProperty(), skipped );
+		// hierarchy は URI どうしの辺しか持たないので，目的語が URI でない辺 (OWL の制限など) のある主語も聞き直す
+		Set<Resource> partial = traced.listStatements(null, hierarchy.getProperty(), (RDFNode) null).toList().stream()
+				.filter ( st -> !st.getObject().isURIResource() )
+				.map    ( Statement::getSubject )
+				.collect( Collectors.toSet() );
+		// 辿り尽くしたので，起点と辿り着いたノードは辺が揃っている．
+		// ただし予算が尽きて問い合わせなかったノードは，次に聞き直せるよう揃ったことにしない
+		hierarchy.add( traced, Sets.difference( Sets.union( bases, listObjectResourceIn(traced) ),
+				Sets.union( skipped, partial ) ) );
+
+		return traced;
 	}
 	
 	// subClass, subProperty の検索だけで使うので，filter(isURI(?o)) は(今のところ)必要ない
-	private Model tracePath(Resource base, Property property) {
-		val query = concat(
+	private Model tracePath(QueryKind kind, Set<Resource> bases, Property property, Set<Resource> skipped) {
+		val closure = concat(
 				"CONSTRUCT {",
-				"     @s @p ?o .",
+				"     ?s @p ?o .",
 				"} WHERE {",
-				"     @s @p ?o .",
+				"     VALUES ?c { @values }",
+				"     ?c @p* ?s .",
+				"     ?s @p  ?o .",
+				"   FILTER(isURI(?s))",
 				"}")
-				.replace("@s", normalize(base))
 				.replace("@p", normalize(property));
 
-		val result = executeAsConstruct(query);
-		val rest = result.listObjects().toSet().stream()
-				.filter( o -> o.isURIResource() )
-				.map   ( o -> o.asResource())
-				.map   ( o -> tracePath(o, property) )
-				.reduce( ModelFactory.createDefaultModel(), (a, b) -> a.add(b) );
+		val step = concat(
+				"CONSTRUCT {",
+				"     ?s @p ?o .",
+				"} WHERE {",
+				"     VALUES ?s { @values }",
+				"     ?s @p ?o .",
+				"}")
+				.replace("@p", normalize(property));
 
-		return result.add(rest);
+		return new Traversal( bases,
+				routed( (c, ss) -> c.lookupClosure(kind, ss, closure, step,
+						Statement::getSubject, Crawler::listObjectResourceIn), skipped ),
+				Crawler::listObjectResourceIn )
+				.expandTo(UNBOUNDED);
 	}
 	
 	// subClass, subProperty の検索だけで使うので，filter(isURI(?o)) は(今のところ)必要ない
-	private Model tracePathReversely(Property property, Resource base) { 
-		val query = concat(
+	private Model tracePathReversely(Property property, Set<Resource> bases) { 
+		val closure = concat(
 				"CONSTRUCT {",
-				"     ?s @p @o .",
+				"     ?s @p ?o .",
 				"} WHERE {",
-				"     ?s @p @o . ",
+				"     VALUES ?c { @values }",
+				"     ?o @p* ?c .",
+				"     ?s @p  ?o .",
+				"   FILTER(isURI(?o))",
 				"}")
-				.replace("@p", normalize(property))
-				.replace("@o", normalize(base)    );
+				.replace("@p", normalize(property));
 
-		val result = executeAsConstruct(query);
-		val rest = result.listSubjects().toSet().stream()
-				.filter( s -> s.isURIResource() )
-				.map   ( s -> s.asResource() )
-				.map   ( s -> tracePathReversely(property, s) )
-				.reduce( ModelFactory.createDefaultModel(), (a, b) -> a.add(b) );
+		val step = concat(
+				"CONSTRUCT {",
+				"     ?s @p ?o .",
+				"} WHERE {",
+				"     VALUES ?o { @values }",
+				"     ?s @p ?o . ",
+				"}")
+				.replace("@p", normalize(property));
 
-		return result.add(rest);
+		return new Traversal( bases,
+				routed( (c, ss) -> c.lookupClosure(QueryKind.SUB_CLASS, ss, closure, step,
+						st -> st.getObject().asResource(), Crawler::listSubjectResourceIn) ),
+				Crawler::listSubjectResourceIn )
+				.expandTo(UNBOUNDED);
 	}
 	
-	private Model inferDomainOf(Resource p) {
+	// 推移閉包をプロパティパス (p*) でまとめて取ってくる．閉包に現れたノードは辺が揃っているので，
+	// それらもキャッシュに入れる．エンドポイントがプロパティパスを受け付けなければ，1 段ずつ辿る
+	private Map<Resource, Model> lookupClosure(QueryKind kind, Set<Resource> resources,
+			String closure, String step,
+			Function<Statement, Resource> keyOf, Function<Model, Set<Resource>> neighbours) {
+
+		if ( usePropertyPaths ) {
+			try {
+				return lookup(kind, resources, closure, keyOf, neighbours);
+			} catch (QueryExceptionHTTP e) {
+				if ( e.getResponseCode() != BAD_REQUEST ) {
+					throw e;
+				}
+
+				log.warn("property paths are not supported ({}), fall back to iterative walk", e.toString());
+				usePropertyPaths = false;
+			}
+		}
+
+		return lookup(kind, resources, step, keyOf);
+	}
+	
+	private Model inferDomainOf(Set<Resource> properties) {
 		val query = concat(
 				"CONSTRUCT {",
-				"     @p rdfs:domain ?c",
+				"     ?p rdfs:domain ?c",
 				"} WHERE {",
-				"     @p rdfs:domain ?c",
-				"}"
-				).replace("@p", normalize(p));
+				"     VALUES ?p { @values }",
+				"     ?p rdfs:domain ?c",
+				"}");
 		
-		return executeAsConstruct(query);
+		return Models.union( dispatch( properties,
+				(c, rs) -> c.lookup(QueryKind.DOMAIN, rs, query, Statement::getSubject) ).values() );
 	}
 	
-	private Model inferRangeOf(Resource p) {
+	private Model inferRangeOf(Set<Resource> properties) {
 		val query = concat(
 				"CONSTRUCT {",
-				"     @p rdfs:range ?c",
+				"     ?p rdfs:range ?c",
 				"} WHERE {",
-				"     @p rdfs:range ?c",
-				"}"
-				).replace("@p", normalize(p));
+				"     VALUES ?p { @values }",
+				"     ?p rdfs:range ?c",
+				"}");
 
-		return executeAsConstruct(query);
+		return Models.union( dispatch( properties,
+				(c, rs) -> c.lookup(QueryKind.RANGE, rs, query, Statement::getSubject) ).values() );
 	}
 
-	@SuppressWarnings("unchecked")
 	public Model extractPropertyInfo(Model model) {
 		val properties = listPropertyIn(model);
 		log.info("infer property info for {} properties", properties.size());
 		
-		val domains = properties.stream().map( p -> inferDomainOf(p) );
-		val ranges  = properties.stream().map( p -> inferRangeOf(p) );
+		return extractPropertyInfoOf(properties);
+	}
+	
+	public Model extractPropertyInfoOf(Set<Resource> properties) {
+		val info = Models.union( Arrays.asList( inferDomainOf(properties), inferRangeOf(properties) ) );
+		rdfsClosure.addPropertyInfo(info);
 
-		return toModel(domains, ranges);
+		return info;
 	}
 	
-	@SuppressWarnings("unchecked")
-	private Model toModel(Stream<Model>...streams) {
-		val all = Arrays.stream(streams)
-				.reduce(Stream.empty(), (a, b) -> Stream.concat(a, b));
-		
-		return all.reduce(ModelFactory.createDefaultModel(), (a, b) -> a.add(b));
+	// 取ってきたスキーマから導かれる，model に無い rdf:type
+	public Model inferTypesIn(Model model) {
+		return rdfsClosure.inferTypes(model);
 	}
 	
-	private Set<Resource> listPropertyIn(Model model) {
+	public Set<Resource> listPropertyIn(Model model) {
 		val query = concat(
 				PREFIX_LIST,
 				"SELECT DISTINCT ?p {",
@@ -246,28 +986,30 @@ public class Crawler {
 		val properties = listPropertyIn(model);
 		log.info("infer super property for {} properties.", properties.size());
 
-		return properties.stream()
-				.map   ( p -> inferSuperPropertyOf(p) )
-				.reduce( ModelFactory.createDefaultModel(), (a, b) -> a.add(b) );
+		return inferSuperPropertyOf(properties);
 	}
 
 	public Model extractTypeIn(Model model) {
 		val instances = listInstanceIn(model);
 		log.info("extract type for {} instances.", instances.size());
 		
-		return instances.stream()
-				.map   ( i -> extractTypeOf(i) )
-				.reduce( ModelFactory.createDefaultModel(), (a, b) -> a.add(b) );
+		return extractTypeOf(instances);
 	}
 	
-	private Model extractTypeOf(Resource instance) {
-		val query = "construct { @i rdf:type ?c } where { @i rdf:type ?c }"
-				.replace("@i", normalize(instance));
-		
-		return executeAsConstruct(query);		
+	public Model extractTypeOf(Set<Resource> instances) {
+		val query = concat(
+				"CONSTRUCT {",
+				"     ?i rdf:type ?c",
+				"} WHERE {",
+				"     VALUES ?i { @values }",
+				"     ?i rdf:type ?c",
+				"}");
+
+		return Models.union( dispatch( instances,
+				(c, rs) -> c.lookup(QueryKind.TYPE, rs, query, Statement::getSubject) ).values() );
 	}
 		
-	private Set<Resource> listClassIn(Model model) {
+	public Set<Resource> listClassIn(Model model) {
 		val query = concat(
 				PREFIX_LIST,
 				"SELECT DISTINCT ?c {",
@@ -294,9 +1036,7 @@ public class Crawler {
 		val classes = listClassIn(model);
 		log.info("infer super class for {} classes.", classes.size());
 
-		return classes.stream()
-				.map   ( c -> inferSuperClassOf(c) )
-				.reduce( ModelFactory.createDefaultModel(), (a, b) -> a.add(b) );
+		return inferSuperClassOf(classes);
 	}
 
 }
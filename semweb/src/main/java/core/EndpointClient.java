@@ -0,0 +1,205 @@
+package core;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.RateLimiter;
+import com.hp.hpl.jena.query.QueryCancelledException;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+
+// 1 つのエンドポイントへのリクエストを調整する．
+// 毎秒のリクエスト数は RateLimiter で抑え，同時に投げる数は AIMD で増減させる
+// (429/503/タイムアウトか，応答が latencyMillis より遅ければ半分にし，そうでなければ 1/limit ずつ増やす)．
+// 一時的な失敗はジッタ付きの指数バックオフで投げ直す
+@Slf4j
+public class EndpointClient {
+
+	private static final int TOO_MANY_REQUESTS   = 429;
+	private static final int BAD_GATEWAY         = 502;
+	private static final int SERVICE_UNAVAILABLE = 503;
+	private static final int GATEWAY_TIMEOUT     = 504;
+
+	private static final int MAX_BACKOFF_SHIFT = 16;
+
+	// null なら毎秒のリクエスト数を制限しない
+	private final RateLimiter rateLimiter;
+
+	private final int  maxConcurrency;
+	private final long latencyMillis;
+	private final int  maxRetries;
+	private final long backoffMillis;
+
+	// 0 以下なら設定しない
+	@Getter
+	private final long timeoutMillis;
+
+	private double limit;
+	private int    inFlight;
+	// これより前に投げたリクエストの失敗では，もう一度 limit を減らさない
+	private long   lastDecrease = System.nanoTime();
+
+	// 問い合わせ数と，応答を待った時間の合計の上限．0 以下なら制限しない．
+	// 使い切ると execute は BudgetExhaustedException を投げ，遅いエンドポイントがクロール全体を止めないようにする
+	@Setter
+	private volatile long maxRequests = 0;
+	@Setter
+	private volatile long maxBusyMillis = 0;
+
+	private final AtomicLong requests  = new AtomicLong();
+	private final AtomicLong retries   = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong busyNanos = new AtomicLong();
+
+	// requestsPerSecond, latencyMillis が 0 以下なら，それぞれの制限をしない
+	public EndpointClient(double requestsPerSecond, int maxConcurrency,
+			long latencyMillis, long timeoutMillis, int maxRetries, long backoffMillis) {
+
+		this.rateLimiter    = requestsPerSecond > 0 ? RateLimiter.create(requestsPerSecond) : null;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.latencyMillis  = latencyMillis;
+		this.timeoutMillis  = timeoutMillis;
+		this.maxRetries     = maxRetries;
+		this.backoffMillis  = backoffMillis;
+		this.limit          = this.maxConcurrency;
+	}
+
+	// 何も制限せず，投げ直しもしない
+	public static EndpointClient unlimited() {
+		return new EndpointClient(0, Integer.MAX_VALUE, 0, 0, 0, 0);
+	}
+
+	public synchronized int getConcurrencyLimit() {
+		return (int) limit;
+	}
+
+	public boolean isExhausted() {
+		return ( maxRequests > 0 && requests.get() >= maxRequests )
+				|| ( maxBusyMillis > 0 && TimeUnit.NANOSECONDS.toMillis( busyNanos.get() ) >= maxBusyMillis );
+	}
+
+	public <T> T execute(Supplier<T> request) {
+		for ( int attempt = 0; ; attempt++ ) {
+			if ( isExhausted() ) {
+				throw new BudgetExhaustedException( "budget exhausted: " + this );
+			}
+
+			val start = acquire();
+			try {
+				T result = request.get();
+				release( start, isSlow(start) );
+
+				return result;
+			} catch (RuntimeException e) {
+				val overloaded = isOverloaded(e);
+				release( start, overloaded );
+				if ( overloaded ) {
+					throttled.incrementAndGet();
+				}
+
+				if ( !(overloaded || isTransient(e)) || attempt >= maxRetries ) {
+					throw e;
+				}
+
+				val delay = backoff(attempt);
+				log.warn("request failed ({}), retry {}/{} in {} ms", e, attempt + 1, maxRetries, delay);
+				retries.incrementAndGet();
+				sleep(delay);
+			}
+		}
+	}
+
+	private long acquire() {
+		synchronized (this) {
+			while ( inFlight >= (int) limit ) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("interrupted while waiting for endpoint", e);
+				}
+			}
+			inFlight++;
+		}
+
+		if ( rateLimiter != null ) {
+			rateLimiter.acquire();
+		}
+		requests.incrementAndGet();
+
+		return System.nanoTime();
+	}
+
+	private synchronized void release(long start, boolean congested) {
+		inFlight--;
+		busyNanos.addAndGet( System.nanoTime() - start );
+
+		if ( congested ) {
+			if ( start - lastDecrease > 0 ) {
+				limit = Math.max(1, limit / 2);
+				lastDecrease = System.nanoTime();
+				log.info("concurrency limit decreased to {}", (int) limit);
+			}
+		} else if ( limit < maxConcurrency ) {
+			limit = Math.min(maxConcurrency, limit + 1 / limit);
+		}
+
+		notifyAll();
+	}
+
+	private boolean isSlow(long start) {
+		return latencyMillis > 0 && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > latencyMillis;
+	}
+
+	private static boolean isOverloaded(RuntimeException e) {
+		if ( e instanceof QueryExceptionHTTP ) {
+			val code = ((QueryExceptionHTTP) e).getResponseCode();
+			if ( code == TOO_MANY_REQUESTS || code == SERVICE_UNAVAILABLE ) {
+				return true;
+			}
+		}
+
+		return e instanceof QueryCancelledException
+				|| Throwables.getCausalChain(e).stream().anyMatch( c -> c instanceof SocketTimeoutException );
+	}
+
+	private static boolean isTransient(RuntimeException e) {
+		if ( !(e instanceof QueryExceptionHTTP) ) {
+			return false;
+		}
+
+		val code = ((QueryExceptionHTTP) e).getResponseCode();
+		return code == BAD_GATEWAY || code == GATEWAY_TIMEOUT;
+	}
+
+	// 上限の半分から上限までの間で揺らし，同時に失敗したリクエストが揃って投げ直さないようにする
+	private long backoff(int attempt) {
+		val cap = backoffMillis << Math.min(attempt, MAX_BACKOFF_SHIFT);
+
+		return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while backing off", e);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("endpoint client: requests = %d, retries = %d, throttled = %d, concurrency = %d, busy = %d ms",
+				requests.get(), retries.get(), throttled.get(), (int) limit,
+				TimeUnit.NANOSECONDS.toMillis( busyNanos.get() ));
+	}
+}
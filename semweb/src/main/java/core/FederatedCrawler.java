@@ -0,0 +1,58 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+
+import com.hp.hpl.jena.rdf.model.Resource;
+
+// IRI の名前空間ごとに問い合わせるエンドポイントを振り分ける Crawler．
+// どの名前空間にも当てはまらない IRI は自分のエンドポイントに問い合わせる．
+// 振り分け先の Crawler はそれぞれの EndpointClient と lookupCache を持ち，宛先ごとに並行に問い合わせる
+@Slf4j
+public class FederatedCrawler extends Crawler {
+
+	private final Map<String, Crawler> routes = new LinkedHashMap<>();
+
+	public FederatedCrawler(String endpointURL) {
+		super(endpointURL);
+	}
+
+	// namespace で始まる IRI は crawler に問い合わせる．重なる名前空間は長い方を使う
+	public void addRoute(String namespace, Crawler crawler) {
+		log.info("route {} to {}", namespace, crawler.getEndpointURL());
+		routes.put(namespace, crawler);
+	}
+
+	@Override
+	Crawler crawlerFor(Resource resource) {
+		if ( !resource.isURIResource() ) {
+			return this;
+		}
+
+		String matched = "";
+		Crawler crawler = this;
+		for ( final Map.Entry<String, Crawler> route : routes.entrySet() ) {
+			if ( resource.getURI().startsWith( route.getKey() ) && route.getKey().length() > matched.length() ) {
+				matched = route.getKey();
+				crawler = route.getValue();
+			}
+		}
+
+		return crawler;
+	}
+
+	@Override
+	public List<Crawler> listCrawlers() {
+		List<Crawler> crawlers = new ArrayList<>();
+		crawlers.add(this);
+		routes.values().stream()
+				.filter ( c -> !crawlers.contains(c) )
+				.forEach( crawlers::add );
+
+		return crawlers;
+	}
+}
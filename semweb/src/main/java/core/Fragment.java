@@ -1,31 +1,98 @@
 package core;
 
 import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.val;
 import lombok.extern.slf4j.Slf4j;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
 
 @Slf4j
-@AllArgsConstructor
 public class Fragment {
 
+	@Getter
 	private final Model   model;
 	private final Crawler crawler;
+
+	// シードごとの探索の途中状態．expand を繰り返すと前回の深さの続きから辿る
+	private final Map<Resource, Traversal> traversals = new HashMap<>();
+
+	// 実行順に並べる．各段階には，それより前の段階で増えたトリプルだけを渡す
+	private final List<Phase> phases;
+
+	// null でなければトリプルを届いた順に書き出し，model には溜めない
+	@Setter
+	private StreamingWriter stream;
+
+	// null でなければ探索の 1 段，各段階の実行ごとに途中状態を書き出す
+	@Setter
+	private Checkpoint checkpoint;
+
+	// true なら探索と各段階を並行に動かし，増えたトリプルをすぐ後の段階に渡す
+	@Setter
+	private boolean pipelined = false;
+
+	// true なら取ってきたスキーマから導かれる rdf:type も書き出す (model には入れない)
+	@Setter
+	private boolean inferTypes = false;
+
+	// チェックポイントに書く，探索が最後に終えた段の深さと frontier
+	private int           tracedDepth;
+	private Set<Resource> tracedFrontier;
+	
+	public Fragment(Model model, Crawler crawler) {
+		this.model   = model;
+		this.crawler = crawler;
+		this.phases  = createPhases(crawler);
+	}
+	
+	private static List<Phase> createPhases(Crawler crawler) {
+		return Arrays.asList(
+				new Phase( "super property", crawler::listPropertyIn, crawler::inferSuperPropertyOf  ),
+				new Phase( "property info",  crawler::listPropertyIn, crawler::extractPropertyInfoOf ),
+				new Phase( "type",           crawler::listInstanceIn, crawler::extractTypeOf         ),
+				new Phase( "super class",    crawler::listClassIn,    crawler::inferSuperClassOf     ));
+	}
 	
 	public static Fragment from(String endpointURL) {
-		val model   = ModelFactory.createDefaultModel();
-		val crawler = new Crawler(endpointURL);
+		return from( new Crawler(endpointURL) );
+	}
+	
+	public static Fragment from(Crawler crawler) {
+		val model = ModelFactory.createDefaultModel();
 
 		return new Fragment( model, crawler );
 	}
 	
+	// instance から辿り終えた深さ (まだ辿っていなければ 0)
+	public int depthOf(String instance) {
+		val traversal = traversals.get( ResourceFactory.createResource(instance) );
+
+		return traversal == null ? 0 : traversal.getDepth();
+	}
+	
 	public void expand(String instance, int depth) {
 		val i = ResourceFactory.createResource( instance );
 		
@@ -33,39 +100,232 @@ public class Fragment {
 	}
 	
 	private void expand(Resource instance, int depth) {
-		if ( !crawler.exists(instance) ) {
-			log.info("\"{}\" does not exist.", instance);
-			log.info("aborted.");
+		Traversal traversal = traversals.get(instance);
+		if ( traversal == null ) {
+			// 手元の Model に現れていれば，エンドポイントに問い合わせるまでもない
+			if ( !model.containsResource(instance) && !crawler.exists(instance) ) {
+				log.info("\"{}\" does not exist.", instance);
+				log.info("aborted.");
+
+				return ;
+			}
+
+			traversal = crawler.traversePropertyPathFrom(instance);
+			traversals.put(instance, traversal);
+		}
+
+		val traced = traversal.getDepth() >= depth || traversal.isExhausted();
+		if ( traced && phases.stream().noneMatch( Phase::hasPending ) ) {
+			log.info("{} is already expanded to depth {}", instance, traversal.getDepth());
 
 			return ;
 		}
 
-		log.info("expand({}, {})", instance, depth);
+		log.info("expand({}, {}) from depth {}", instance, depth, traversal.getDepth());
 
 		val stopwatch = Stopwatch.createStarted();
-		
-		model.add( crawler.tracePropertyPathFrom(instance, depth) );
-		log.info("finish tracing property path");
-		
-		model.add( crawler.inferSuperPropertyIn(model) );
-		log.info("finish inference for super property");
-		
-		model.add( crawler.extractPropertyInfo(model) );
-		log.info("finish extracting property info");
-		
-		model.add( crawler.extractTypeIn(model));
-		log.info("finish extracting type");
-		
-		model.add( crawler.inferSuperClassIn(model) );
-		log.info("finish inference for super class");
+		synchronized (this) {
+			tracedDepth    = traversal.getDepth();
+			tracedFrontier = traversal.getFrontier();
+		}
+
+		if ( pipelined ) {
+			expandPipelined(instance, traversal, depth);
+		} else {
+			trace(instance, traversal, depth);
+			for ( int i = 0; i < phases.size(); i++ ) {
+				runPhase(instance, i);
+			}
+		}
+
+		if ( checkpoint != null ) {
+			synchronized (this) {
+				commit(instance, true);
+			}
+		}
 
 		stopwatch.stop();
 		log.info("{},{}: time = {}", instance, depth, stopwatch);
 	}
 	
+	// 探索と各段階をそれぞれのスレッドで動かす．i 番目の段階は，探索とそれより前の段階がすべて終わり，
+	// 渡されたトリプルが残っていなければ終わる．どの順で進んでも，段階ごとに順に実行した場合と同じ結果になる
+	private void expandPipelined(Resource instance, Traversal traversal, int depth) {
+		// 0 番目が探索，i + 1 番目が i 番目の段階
+		val finished = new boolean[ phases.size() + 1 ];
+
+		val tasks = new ArrayList<Callable<Void>>();
+		tasks.add( () -> {
+			try {
+				trace(instance, traversal, depth);
+			} finally {
+				finish(finished, 0);
+			}
+			return null;
+		});
+		for ( int i = 0; i < phases.size(); i++ ) {
+			final int index = i;
+			tasks.add( () -> {
+				try {
+					drain(instance, index, finished);
+				} finally {
+					finish(finished, index + 1);
+				}
+				return null;
+			});
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool( tasks.size(),
+				new ThreadFactoryBuilder().setNameFormat("pipeline-%d").setDaemon(true).build() );
+		try {
+			for ( final Future<Void> future : pool.invokeAll(tasks) ) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while expanding", e);
+		} catch (ExecutionException e) {
+			throw Throwables.propagate( e.getCause() );
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	private synchronized void finish(boolean[] finished, int stage) {
+		finished[stage] = true;
+		notifyAll();
+	}
+	
+	// 前の段階が終わるまで，渡されたトリプルがあれば run を繰り返す
+	private void drain(Resource instance, int index, boolean[] finished) throws InterruptedException {
+		val phase = phases.get(index);
+		while ( true ) {
+			synchronized (this) {
+				while ( !phase.hasPending() && !upstreamFinished(finished, index) ) {
+					wait();
+				}
+				if ( !phase.hasPending() ) {
+					return ;
+				}
+			}
+
+			runPhase(instance, index);
+		}
+	}
+	
+	private static boolean upstreamFinished(boolean[] finished, int index) {
+		for ( int stage = 0; stage <= index; stage++ ) {
+			if ( !finished[stage] ) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+	
+	private void trace(Resource instance, Traversal traversal, int depth) {
+		val watch = Stopwatch.createStarted();
+		while ( traversal.getDepth() < depth && !traversal.isExhausted() ) {
+			val frontier = traversal.getFrontier();
+			// 1 段ずつ書き出すが，問い合わせは depth までまとめてよい
+			val edges = traversal.expandTo( traversal.getDepth() + 1, depth );
+
+			synchronized (this) {
+				tracedDepth    = traversal.getDepth();
+				tracedFrontier = traversal.getFrontier();
+				feed( -1, edges );
+
+				if ( checkpoint != null ) {
+					checkpoint.recordVisited(frontier);
+					commit(instance, false);
+				}
+			}
+		}
+
+		crawler.getMetrics().recordPhase( "trace", watch.elapsed(TimeUnit.NANOSECONDS) );
+		log.info("finish tracing property path in {}", watch.stop());
+	}
+	
+	private void runPhase(Resource instance, int index) {
+		val phase = phases.get(index);
+		val watch = Stopwatch.createStarted();
+		val result = phase.run();
+
+		synchronized (this) {
+			val consumed = phase.acknowledge();
+			feed( index, result );
+
+			if ( checkpoint != null ) {
+				checkpoint.recordConsumed( index, consumed );
+				checkpoint.recordResolved( index, phase.getLastResolved() );
+				commit(instance, false);
+			}
+		}
+
+		crawler.getMetrics().recordPhase( phase.getName(), watch.elapsed(TimeUnit.NANOSECONDS) );
+		log.info("finish {} in {}", phase.getName(), watch.stop());
+	}
+	
+	// 探索が最後に終えた段の状態を書き出す．各段階に渡したトリプルは feed で書き足してある
+	private void commit(Resource instance, boolean force) {
+		checkpoint.commit( instance, tracedDepth, tracedFrontier, phases.size(), force );
+	}
+	
+	// チェックポイントの状態から続ける．トリプルは書き出し先に入れ直す
+	public void restore(Checkpoint.State state) {
+		if ( stream != null ) {
+			stream.add( state.getTriples() );
+		} else {
+			model.add( state.getTriples() );
+		}
+
+		val traversal = crawler.traversePropertyPathFrom( state.getSeed() );
+		traversal.restore( state.getDepth(), state.getVisited(), state.getFrontier() );
+		traversals.put( state.getSeed(), traversal );
+
+		for ( int i = 0; i < phases.size(); i++ ) {
+			phases.get(i).restore( state.getResolved().get(i), state.getPending().get(i) );
+		}
+
+		log.info("resumed {} at depth {} with {} triples",
+				state.getSeed(), state.getDepth(), state.getTriples().size());
+	}
+	
+	// producer 番目の段階で得たトリプルを，それより後の段階に渡す (-1 は探索の結果)
+	private synchronized void feed(int producer, Model triples) {
+		if ( stream != null ) {
+			stream.add(triples);
+		} else {
+			model.add(triples);
+		}
+		if ( checkpoint != null ) {
+			val range = checkpoint.recordTriples(triples);
+			for ( int i = producer + 1; i < phases.size(); i++ ) {
+				checkpoint.recordPending(i, range);
+			}
+		}
+
+		for ( int i = producer + 1; i < phases.size(); i++ ) {
+			phases.get(i).offer(triples);
+		}
+		notifyAll();
+	}
+	
 	public void output(String fileName) {
+		if ( stream != null ) {
+			try {
+				stream.snapshot( Paths.get(fileName) );
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return ;
+		}
+
+		Model output = inferTypes
+				? Models.union( Arrays.asList( model, crawler.inferTypesIn(model) ) )
+				: model;
 		try ( FileWriter out = new FileWriter(fileName) ) {
-			model.write( out, "TTL" );
+			output.write( out, "TTL" );
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
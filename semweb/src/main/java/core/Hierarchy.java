@@ -0,0 +1,330 @@
+package core;
+
+import static core.NodeDictionary.NONE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.val;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+// subClassOf, subPropertyOf のような 1 つのプロパティの辺を溜め，推移閉包を手元で答える．
+// ノードは NodeDictionary で int にし，辺は int の配列で持つ．
+// 祖先の判定には区間のラベルを使う．強連結成分 (互いに subClassOf なクラス) を 1 つにまとめ，
+// 上位へ辿る深さ優先探索の帰りがけ順に番号を振ると，祖先の番号は少ない区間にまとまる (木なら 1 つ)．
+// ラベルは辺が増えると作り直す．作り直しは辺の数に比例し，10 万クラスでも 1 秒かからない
+public class Hierarchy {
+
+	@Getter
+	private final Property property;
+
+	private final NodeDictionary dictionary = new NodeDictionary();
+
+	// ノードごとの親 (辺の目的語) の並びと数
+	private int[][] parents     = new int[1024][];
+	private int[]   parentCount = new int[1024];
+
+	// 辺がすべて分かっているノード
+	private final BitSet complete = new BitSet();
+
+	// ノードの強連結成分．成分の番号は帰りがけ順で，親の成分は子より小さい
+	private int[] component;
+
+	// 成分ごとの祖先の成分の区間 (lo, hi を交互に並べる)
+	private int[][] intervals;
+
+	// 成分ごとのノード (componentStart[c] から componentStart[c + 1] まで)
+	private int[] members;
+	private int[] componentStart;
+
+	private boolean dirty = true;
+
+	public Hierarchy(Property property) {
+		this.property = property;
+	}
+
+	public synchronized int size() {
+		return dictionary.size();
+	}
+
+	// model の property の辺を足す．complete のノードは，辺がすべて揃ったものとして覚える
+	public synchronized void add(Model model, Collection<Resource> complete) {
+		for ( final Statement statement : model.listStatements(null, property, (RDFNode) null).toList() ) {
+			if ( statement.getSubject().isURIResource() && statement.getObject().isURIResource() ) {
+				addEdge( idOf( statement.getSubject() ), idOf( statement.getObject().asResource() ) );
+			}
+		}
+		for ( final Resource resource : complete ) {
+			if ( resource.isURIResource() ) {
+				this.complete.set( idOf(resource) );
+			}
+		}
+	}
+
+	private int idOf(Resource resource) {
+		int size = dictionary.size();
+		int id = dictionary.intern( resource.asNode() );
+		// 新しいノードにもラベルが要る
+		if ( id >= size ) {
+			dirty = true;
+		}
+		if ( id >= parents.length ) {
+			parents     = Arrays.copyOf( parents,     id * 2 );
+			parentCount = Arrays.copyOf( parentCount, id * 2 );
+		}
+
+		return id;
+	}
+
+	private void addEdge(int child, int parent) {
+		int count = parentCount[child];
+		int[] list = parents[child];
+		for ( int i = 0; i < count; i++ ) {
+			if ( list[i] == parent ) {
+				return ;
+			}
+		}
+
+		if ( list == null ) {
+			list = new int[2];
+		} else if ( count == list.length ) {
+			list = Arrays.copyOf( list, count * 2 );
+		}
+		list[count] = parent;
+		parents[child] = list;
+		parentCount[child]++;
+		dirty = true;
+	}
+
+	// bases から辿れる辺．辿ったノードに 1 つでも辺の揃っていないものがあれば null
+	public synchronized Model closureOf(Set<Resource> bases) {
+		val visited = new BitSet();
+		val queue   = new ArrayList<Integer>();
+		for ( final Resource base : bases ) {
+			int id = base.isURIResource() ? dictionary.lookup( base.asNode() ) : NONE;
+			if ( id == NONE || !complete.get(id) ) {
+				return null;
+			}
+			if ( !visited.get(id) ) {
+				visited.set(id);
+				queue.add(id);
+			}
+		}
+
+		val closure = ModelFactory.createDefaultModel();
+		for ( int head = 0; head < queue.size(); head++ ) {
+			int node = queue.get(head);
+			if ( !complete.get(node) ) {
+				return null;
+			}
+			for ( int i = 0; i < parentCount[node]; i++ ) {
+				int parent = parents[node][i];
+				closure.add( resourceOf(node), property, resourceOf(parent) );
+				if ( !visited.get(parent) ) {
+					visited.set(parent);
+					queue.add(parent);
+				}
+			}
+		}
+
+		return closure;
+	}
+
+	// from から property を辿って to に届くか (from 自身も含む)
+	public synchronized boolean reaches(Resource from, Resource to) {
+		if ( from.equals(to) ) {
+			return true;
+		}
+
+		int f = dictionary.lookup( from.asNode() );
+		int t = dictionary.lookup( to.asNode()   );
+		if ( f == NONE || t == NONE ) {
+			return false;
+		}
+
+		label();
+		return contains( intervals[ component[f] ], component[t] );
+	}
+
+	// resource から辿れるノード (resource 自身を含む)
+	public synchronized Set<Resource> ancestorsOf(Resource resource) {
+		Set<Resource> ancestors = new HashSet<>();
+		ancestors.add(resource);
+
+		int id = resource.isURIResource() ? dictionary.lookup( resource.asNode() ) : NONE;
+		if ( id == NONE ) {
+			return ancestors;
+		}
+
+		label();
+		int[] ranges = intervals[ component[id] ];
+		for ( int i = 0; i < ranges.length; i += 2 ) {
+			for ( int c = ranges[i]; c <= ranges[i + 1]; c++ ) {
+				for ( int m = componentStart[c]; m < componentStart[c + 1]; m++ ) {
+					ancestors.add( resourceOf( members[m] ) );
+				}
+			}
+		}
+
+		return ancestors;
+	}
+
+	private Resource resourceOf(int id) {
+		return ResourceFactory.createResource( dictionary.node(id).getURI() );
+	}
+
+	private static boolean contains(int[] ranges, int c) {
+		int lo = 0;
+		int hi = ranges.length / 2 - 1;
+		while ( lo <= hi ) {
+			int mid = (lo + hi) >>> 1;
+			if ( c < ranges[mid * 2] ) {
+				hi = mid - 1;
+			} else if ( c > ranges[mid * 2 + 1] ) {
+				lo = mid + 1;
+			} else {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// 強連結成分を Tarjan の方法で求め (再帰せずに)，成分ごとに祖先の区間を作る
+	private void label() {
+		if ( !dirty ) {
+			return ;
+		}
+
+		int n = dictionary.size();
+		int[] index = new int[n];
+		int[] low   = new int[n];
+		Arrays.fill(index, NONE);
+		val onStack = new BitSet(n);
+		int[] stack     = new int[n];
+		int[] callNode  = new int[n];
+		int[] callEdge  = new int[n];
+		component = new int[n];
+
+		int sp = 0;
+		int counter = 0;
+		int components = 0;
+		for ( int root = 0; root < n; root++ ) {
+			if ( index[root] != NONE ) {
+				continue;
+			}
+
+			int cp = 0;
+			callNode[cp] = root;
+			callEdge[cp] = 0;
+			cp++;
+			index[root] = low[root] = counter++;
+			stack[sp++] = root;
+			onStack.set(root);
+
+			while ( cp > 0 ) {
+				int v = callNode[cp - 1];
+				if ( callEdge[cp - 1] < parentCount[v] ) {
+					int w = parents[v][ callEdge[cp - 1]++ ];
+					if ( index[w] == NONE ) {
+						callNode[cp] = w;
+						callEdge[cp] = 0;
+						cp++;
+						index[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack.set(w);
+					} else if ( onStack.get(w) ) {
+						low[v] = Math.min( low[v], index[w] );
+					}
+					continue;
+				}
+
+				cp--;
+				if ( low[v] == index[v] ) {
+					int w;
+					do {
+						w = stack[--sp];
+						onStack.clear(w);
+						component[w] = components;
+					} while ( w != v );
+					components++;
+				}
+				if ( cp > 0 ) {
+					int u = callNode[cp - 1];
+					low[u] = Math.min( low[u], low[v] );
+				}
+			}
+		}
+
+		groupMembers(n, components);
+
+		// 親の成分は番号が小さいので，番号の順に作れば親の区間はできている
+		intervals = new int[components][];
+		for ( int c = 0; c < components; c++ ) {
+			List<int[]> ranges = new ArrayList<>();
+			ranges.add( new int[] { c, c } );
+			for ( int m = componentStart[c]; m < componentStart[c + 1]; m++ ) {
+				int node = members[m];
+				for ( int i = 0; i < parentCount[node]; i++ ) {
+					int p = component[ parents[node][i] ];
+					if ( p != c ) {
+						int[] inherited = intervals[p];
+						for ( int j = 0; j < inherited.length; j += 2 ) {
+							ranges.add( new int[] { inherited[j], inherited[j + 1] } );
+						}
+					}
+				}
+			}
+			intervals[c] = merge(ranges);
+		}
+
+		dirty = false;
+	}
+
+	private void groupMembers(int n, int components) {
+		componentStart = new int[components + 1];
+		for ( int v = 0; v < n; v++ ) {
+			componentStart[ component[v] + 1 ]++;
+		}
+		for ( int c = 0; c < components; c++ ) {
+			componentStart[c + 1] += componentStart[c];
+		}
+
+		members = new int[n];
+		int[] next = Arrays.copyOf( componentStart, components );
+		for ( int v = 0; v < n; v++ ) {
+			members[ next[ component[v] ]++ ] = v;
+		}
+	}
+
+	// 重なる区間と隣り合う区間をつなぐ
+	private static int[] merge(List<int[]> ranges) {
+		ranges.sort( (a, b) -> Integer.compare(a[0], b[0]) );
+
+		int[] merged = new int[ ranges.size() * 2 ];
+		int size = 0;
+		for ( final int[] range : ranges ) {
+			if ( size > 0 && range[0] <= merged[size - 1] + 1 ) {
+				merged[size - 1] = Math.max( merged[size - 1], range[1] );
+			} else {
+				merged[size++] = range[0];
+				merged[size++] = range[1];
+			}
+		}
+
+		return Arrays.copyOf( merged, size );
+	}
+}
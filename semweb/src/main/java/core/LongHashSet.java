@@ -0,0 +1,95 @@
+package core;
+
+// long だけを入れる開番地法のハッシュ集合．Set<Long> より一桁小さい．
+// 0 は空きの印に使うので，0 を入れるときは別に覚えておく
+final class LongHashSet {
+
+	private static final double LOAD_FACTOR = 0.6;
+
+	private long[]  table;
+	private int     size;
+	private boolean containsZero;
+
+	LongHashSet(int expected) {
+		table = new long[ capacityFor(expected) ];
+	}
+
+	private static int capacityFor(int expected) {
+		int capacity = 16;
+		while ( capacity * LOAD_FACTOR < expected ) {
+			capacity <<= 1;
+		}
+
+		return capacity;
+	}
+
+	int size() {
+		return size;
+	}
+
+	// 新しく入れたときだけ true
+	boolean add(long value) {
+		if ( value == 0 ) {
+			if ( containsZero ) {
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+
+		if ( size + 1 > table.length * LOAD_FACTOR ) {
+			resize();
+		}
+
+		if ( !insert(table, value) ) {
+			return false;
+		}
+		size++;
+
+		return true;
+	}
+
+	boolean contains(long value) {
+		if ( value == 0 ) {
+			return containsZero;
+		}
+
+		int mask = table.length - 1;
+		for ( int i = mix(value) & mask; table[i] != 0; i = (i + 1) & mask ) {
+			if ( table[i] == value ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean insert(long[] table, long value) {
+		int mask = table.length - 1;
+		int i = mix(value) & mask;
+		for ( ; table[i] != 0; i = (i + 1) & mask ) {
+			if ( table[i] == value ) {
+				return false;
+			}
+		}
+		table[i] = value;
+
+		return true;
+	}
+
+	private void resize() {
+		long[] larger = new long[ table.length << 1 ];
+		for ( final long value : table ) {
+			if ( value != 0 ) {
+				insert(larger, value);
+			}
+		}
+		table = larger;
+	}
+
+	private static int mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,105 @@
+package core;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Value;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+// リソースごとの問い合わせ結果 (型，直接のパス，上位クラス・プロパティ，domain/range) を覚えておく．
+// 大きさはトリプル数で制限する．入れた Model は共有されるので変更しないこと
+public class LookupCache {
+
+	public static final long DEFAULT_MAX_TRIPLES = 1000000;
+
+	@Value
+	private static class Key {
+		QueryKind kind;
+		Resource  resource;
+	}
+
+	// 存在確認の結果の件数の上限
+	public static final long MAX_EXISTENCE = 100000;
+
+	private final Cache<Key, Model> cache;
+
+	// 存在確認の結果．無いと分かったものも入れる
+	private final Cache<Resource, Boolean> existence = CacheBuilder.newBuilder()
+			.maximumSize( MAX_EXISTENCE )
+			.build();
+
+	private final Map<QueryKind, AtomicLong> hits   = new EnumMap<>(QueryKind.class);
+	private final Map<QueryKind, AtomicLong> misses = new EnumMap<>(QueryKind.class);
+
+	public LookupCache(long maxTriples) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight( maxTriples )
+				.weigher( (Key k, Model v) -> (int) Math.min(Integer.MAX_VALUE, v.size() + 1) )
+				.build();
+
+		for ( final QueryKind kind : QueryKind.values() ) {
+			hits.put  ( kind, new AtomicLong() );
+			misses.put( kind, new AtomicLong() );
+		}
+	}
+
+	public Model getIfPresent(QueryKind kind, Resource resource) {
+		Model model = cache.getIfPresent( new Key(kind, resource) );
+		( model == null ? misses : hits ).get(kind).incrementAndGet();
+
+		return model;
+	}
+
+	public void put(QueryKind kind, Resource resource, Model model) {
+		cache.put( new Key(kind, resource), model );
+	}
+
+	// 存在するかどうか．分からなければ null．
+	// 空でない問い合わせ結果を持っていれば，そのリソースはエンドポイントにある
+	public Boolean getExistence(Resource resource) {
+		Boolean known = existence.getIfPresent(resource);
+		for ( int i = 0; known == null && i < QueryKind.values().length; i++ ) {
+			Model model = cache.getIfPresent( new Key(QueryKind.values()[i], resource) );
+			if ( model != null && !model.isEmpty() ) {
+				known = true;
+			}
+		}
+		( known == null ? misses : hits ).get(QueryKind.ASK).incrementAndGet();
+
+		return known;
+	}
+
+	public void putExistence(Resource resource, boolean exists) {
+		existence.put(resource, exists);
+	}
+
+	public long hitCount(QueryKind kind) {
+		return hits.get(kind).get();
+	}
+
+	public long missCount(QueryKind kind) {
+		return misses.get(kind).get();
+	}
+
+	public double hitRate(QueryKind kind) {
+		long total = hitCount(kind) + missCount(kind);
+
+		return total == 0 ? 1.0 : (double) hitCount(kind) / total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("lookup cache:");
+		for ( final QueryKind kind : QueryKind.values() ) {
+			builder.append( String.format(" %s = %.2f (%d/%d)", kind, hitRate(kind),
+					hitCount(kind), hitCount(kind) + missCount(kind)) );
+		}
+
+		return builder.append(", entries = ").append( cache.size() ).toString();
+	}
+}
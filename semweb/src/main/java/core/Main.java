@@ -1,11 +1,39 @@
 package core;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
 import lombok.val;
+import lombok.extern.slf4j.Slf4j;
 
+import org.apache.commons.configuration.CompositeConfiguration;
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.log4j.PropertyConfigurator;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closer;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+@Slf4j
 public class Main {
 	
 	private Main() {}
@@ -17,33 +45,320 @@ public class Main {
 		return tokens[maxIndex]; 
 	}
 	
+	// routes に名前を並べると，route.<名前>.namespaces で始まる IRI を route.<名前>.endpoint に問い合わせる．
+	// それ以外の IRI は endpoint に問い合わせる
+	private static Crawler createCrawler(Configuration config, ResponseCache cache) {
+		val endpoint = config.getString("endpoint");
+		val routes   = config.getStringArray("routes");
+		if ( routes.length == 0 ) {
+			return configure( new Crawler(endpoint), config, cache );
+		}
+
+		val federated = configure( new FederatedCrawler(endpoint), config, cache );
+		for ( final String route : routes ) {
+			val crawler = configure( new Crawler( config.getString("route." + route + ".endpoint") ), config, cache );
+			for ( final String namespace : config.getStringArray("route." + route + ".namespaces") ) {
+				federated.addRoute(namespace, crawler);
+			}
+		}
+
+		return federated;
+	}
+	
+	// エンドポイントごとの設定は <prefix>.<ホスト名>.xxx で上書きできる
+	private static <T extends Crawler> T configure(T crawler, Configuration config, ResponseCache cache) {
+		val endpoint    = crawler.getEndpointURL();
+		val parallelism = config.getInt("parallelism", Crawler.DEFAULT_PARALLELISM);
+		crawler.setParallelism(parallelism);
+		crawler.setBatchSize( config.getInt("batchsize", Crawler.DEFAULT_BATCH_SIZE) );
+		crawler.setUsePropertyPaths( config.getBoolean("propertypaths", true) );
+		crawler.setResponseCache(cache);
+		crawler.setLookupCache( new LookupCache(
+				config.getLong("lookupcachesize", LookupCache.DEFAULT_MAX_TRIPLES) ) );
+		crawler.setClient( createClient(config, endpoint, parallelism) );
+
+		val wire = perEndpoint(config, endpoint, "wire");
+		crawler.setNegotiate( wire.getBoolean("negotiate", true) );
+		crawler.setCompress ( wire.getBoolean("compress",  true) );
+
+		// limit.rows はエンドポイントが 1 回の結果を打ち切る行数
+		crawler.setResultLimit( perEndpoint(config, endpoint, "limit").getInt("rows", 0) );
+
+		// step なら 1 段ずつ，neighbourhood なら traversal.hops 段ずつ問い合わせる
+		val traversal = perEndpoint(config, endpoint, "traversal");
+		if ( traversal.getString("strategy", "step").equals("neighbourhood") ) {
+			crawler.setHops    ( traversal.getInt("hops",     2) );
+			crawler.setPageSize( traversal.getInt("pagesize", 0) );
+		}
+		crawler.setTraversalPolicy( createPolicy( traversal, perEndpoint(config, endpoint, "prune") ) );
+
+		return crawler;
+	}
+	
+	// direction は out, in, both．outdepth, indepth はその向きの辺を辿る段数 (0 なら depth まで)．
+	// allow, deny は述語の IRI の並び．maxedges を超える辺を持つノードはハブとみなし，
+	// samplehubs なら maxedges 本だけ，そうでなければ辿らない
+	private static TraversalPolicy createPolicy(Configuration traversal, Configuration prune) {
+		val policy = new TraversalPolicy();
+		policy.setDirection( TraversalPolicy.Direction.valueOf(
+				traversal.getString("direction", "out").toUpperCase() ) );
+		policy.setOutDepth( traversal.getInt("outdepth", 0) );
+		policy.setInDepth ( traversal.getInt("indepth",  0) );
+		policy.setAllow( new HashSet<>( Arrays.asList( prune.getStringArray("allow") ) ) );
+		policy.setDeny ( new HashSet<>( Arrays.asList( prune.getStringArray("deny")  ) ) );
+		policy.setMaxEdgesPerNode( prune.getInt    ("maxedges",    0)     );
+		policy.setSampleHubs     ( prune.getBoolean("samplehubs",  false) );
+		policy.setMaxFrontier    ( prune.getInt    ("maxfrontier", 0)     );
+
+		return policy;
+	}
+	
+	// <prefix>.<ホスト名>.xxx があればそちらを，なければ <prefix>.xxx を使う
+	private static Configuration perEndpoint(Configuration config, String endpoint, String prefix) {
+		val host = URI.create(endpoint).getHost();
+		val result = new CompositeConfiguration();
+		result.addConfiguration( config.subset(prefix + "." + host) );
+		result.addConfiguration( config.subset(prefix) );
+
+		return result;
+	}
+	
+	// rate は毎秒のリクエスト数，latency, timeout, backoff はミリ秒．
+	// budget.requests, budget.seconds を使い切ったエンドポイントには，それ以上問い合わせない
+	private static EndpointClient createClient(Configuration config, String endpoint, int parallelism) {
+		val limits = perEndpoint(config, endpoint, "limit");
+		val client = new EndpointClient(
+				limits.getDouble("rate",        0),
+				limits.getInt   ("concurrency", parallelism),
+				limits.getLong  ("latency",     0),
+				limits.getLong  ("timeout",     0),
+				limits.getInt   ("retries",     0),
+				limits.getLong  ("backoff",     1000) );
+
+		val budget = perEndpoint(config, endpoint, "budget");
+		client.setMaxRequests  ( budget.getLong("requests", 0) );
+		client.setMaxBusyMillis( TimeUnit.SECONDS.toMillis( budget.getLong("seconds", 0) ) );
+
+		return client;
+	}
+	
+	// cachedir が無ければキャッシュしない．cachettl は時間，cachesize は MB
+	private static ResponseCache createCache(Configuration config) {
+		val dir = config.getString("cachedir", null);
+		if ( dir == null ) {
+			return null;
+		}
+
+		val ttl  = TimeUnit.HOURS.toMillis( config.getLong("cachettl", 24 * 7) );
+		val size = config.getLong("cachesize", 1024) * 1024 * 1024;
+
+		return new ResponseCache( Paths.get(dir), ttl, size );
+	}
+	
+	// seeds があれば，そのファイル (- なら標準入力) に並んだシードをまとめてクロールする
 	public static void extractFromInstance(String filename) {
 		PropertiesConfiguration config;
 		try {
 			config = new PropertiesConfiguration(filename);
 
-			val endpoint = config.getString("endpoint");
-			val instance = config.getString("instance");
-			val minDepth = config.getInt("mindepth");
-			val maxDepth = config.getInt("maxdepth");
-			val outdir = config.getString("outdir");
-			
-			for (int i = minDepth; i <= maxDepth; i++) {
-				extractFromInstance(endpoint, instance, i, outdir);
+			// 書き出したトリプルは手元に残らないので，型を導く元が無い
+			if ( config.getBoolean("streaming", false) && config.getBoolean("infertypes", false) ) {
+				log.warn("infertypes is ignored while streaming");
+			}
+
+			val cache = createCache(config);
+			val crawler = createCrawler(config, cache);
+			for ( final Crawler c : crawler.listCrawlers() ) {
+				c.getMetrics().register( c.getEndpointURL() );
 			}
 
-		} catch (ConfigurationException e) {
+			val seeds = config.getString("seeds", null);
+			if ( seeds == null ) {
+				extractFromSeed( config, crawler, config.getString("instance"), config.getString("checkpointdir", null) );
+			} else {
+				extractFromSeeds( config, crawler, readSeeds(seeds) );
+			}
+
+			for ( final Crawler c : crawler.listCrawlers() ) {
+				log.info("{} metrics:\n{}", c.getEndpointURL(), c.getMetrics().report());
+				log.info("{}", c.getClient());
+				log.info("{}", c.getLookupCache());
+			}
+			if ( cache != null ) {
+				log.info("{}", cache);
+			}
+
+		} catch (ConfigurationException | IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	// 1 行に 1 つの URI．空行と # で始まる行は飛ばす．"-" なら標準入力から読む
+	private static List<String> readSeeds(String source) throws IOException {
+		List<String> lines = source.equals("-")
+				? CharStreams.readLines( new InputStreamReader(System.in, StandardCharsets.UTF_8) )
+				: Files.readAllLines( Paths.get(source), StandardCharsets.UTF_8 );
+
+		return lines.stream()
+				.map    ( String::trim )
+				.filter ( l -> !l.isEmpty() && !l.startsWith("#") )
+				.collect( Collectors.toList() );
+	}
+	
+	// シードごとに Fragment を作り，seedparallelism 件ずつ同時にクロールする．
+	// 各シードの中の問い合わせは順に投げるので，問い合わせの並行数は seedparallelism になる (Workers を参照)．
+	// Crawler は共有するので，流量制御とキャッシュ，クラスやプロパティの問い合わせ結果はシードの間で使い回す．
+	// チェックポイントはシードごとに checkpointdir/<名前> に置く
+	static void extractFromSeeds(Configuration config, Crawler crawler, List<String> listed) {
+		val parallelism    = config.getInt("seedparallelism", 1);
+		val checkpointRoot = config.getString("checkpointdir", null);
+		val done      = new AtomicInteger();
+		val failed    = new AtomicInteger();
+		val stopwatch = Stopwatch.createStarted();
+
+		// 同じシードを 2 度クロールすると，ファイルとチェックポイントを取り合う
+		List<String> seeds = listed.stream().distinct().collect( Collectors.toList() );
+		if ( seeds.size() < listed.size() ) {
+			log.warn("skip {} duplicated seeds", listed.size() - seeds.size());
+		}
+		val names = namesOf(seeds);
+
+		// シードの存在確認はまとめて済ませておく．各 Fragment は lookupCache から答えを得る．
+		// まとめて確かめられなければ，各 Fragment がシードごとに確かめる
+		try {
+			val existing = crawler.existing( seeds.stream()
+					.map    ( ResourceFactory::createResource )
+					.collect( Collectors.toSet() ) );
+			log.info("{} of {} seeds exist", existing.size(), seeds.size());
+		} catch (RuntimeException e) {
+			log.warn("cannot check seeds in advance ({}), check them one by one", e.toString());
+		}
+
+		Workers.map( seeds, parallelism, seed -> {
+			try {
+				String name = names.get(seed);
+				extractFromSeed( config, crawler, seed, name,
+						checkpointRoot == null ? null : checkpointRoot + "/" + name );
+			} catch (RuntimeException e) {
+				log.error("cannot crawl " + seed, e);
+				failed.incrementAndGet();
+			}
+
+			int count = done.incrementAndGet();
+			if ( count % 100 == 0 || count == seeds.size() ) {
+				log.info("{}/{} seeds ({} failed), {} seeds/hour", count, seeds.size(), failed.get(),
+						String.format("%.1f", count * 3600e3 / Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS))));
+			}
+			return null;
+		});
+	}
+	
+	// ファイルとチェックポイントに使うシードの名前．IRI の最後の区切りが重なるシードには，
+	// 区別できるように IRI のハッシュを付ける
+	static Map<String, String> namesOf(List<String> seeds) {
+		Map<String, Long> counts = seeds.stream()
+				.collect( Collectors.groupingBy( Main::shortenURI, Collectors.counting() ) );
+
+		Map<String, String> names = new HashMap<>();
+		for ( final String seed : seeds ) {
+			val name = shortenURI(seed);
+			names.put( seed, counts.get(name) > 1
+					? name + "_" + Hashing.sha1().hashString(seed, StandardCharsets.UTF_8).toString().substring(0, 8)
+					: name );
+		}
+
+		return names;
+	}
+	
+	// 設定に従って 1 つのシードを mindepth から maxdepth まで深くし，深さごとに書き出す
+	private static void extractFromSeed(
+			Configuration config, Crawler crawler, String instance, String checkpointDir) {
+
+		extractFromSeed( config, crawler, instance, shortenURI(instance), checkpointDir );
+	}
+	
+	// name はファイルの名前に使う
+	private static void extractFromSeed(
+			Configuration config, Crawler crawler, String instance, String name, String checkpointDir) {
+
+		val minDepth = config.getInt("mindepth");
+		val maxDepth = config.getInt("maxdepth");
+		val outdir   = config.getString("outdir");
+
+		try ( Closer closer = Closer.create() ) {
+			Fragment fragment = config.getBoolean("compactstore", false)
+					? new Fragment( ModelFactory.createModelForGraph(new CompactGraph()), crawler )
+					: Fragment.from(crawler);
+			fragment.setPipelined( config.getBoolean("pipeline", false) );
+			fragment.setInferTypes( config.getBoolean("infertypes", false) );
+			val streaming = config.getBoolean("streaming", false);
+			if ( streaming ) {
+				val flushInterval = TimeUnit.SECONDS.toMillis( config.getLong("flushinterval", 10) );
+				fragment.setStream( closer.register(
+						new StreamingWriter(Paths.get(outdir + name + ".nt"), flushInterval) ) );
+			}
+			if ( checkpointDir != null ) {
+				fragment.setCheckpoint( closer.register(
+						openCheckpoint(config, Paths.get(checkpointDir), fragment, instance) ) );
+			}
+
+			extractFromInstance( fragment, instance, name, minDepth, maxDepth, outdir, streaming ? ".nt" : ".ttl" );
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
 	public static void extractFromInstance(
 			String endpoint, String instance, int depth, String outdir) {
 
-		val fragment = Fragment.from(endpoint);
-		fragment.expand( instance, depth );
-		val outfile = outdir + shortenURI(instance) + "_dep" + depth + ".ttl";
-		fragment.output( outfile );
+		extractFromInstance( new Crawler(endpoint), instance, depth, outdir );
+	}
+	
+	public static void extractFromInstance(
+			Crawler crawler, String instance, int depth, String outdir) {
+
+		extractFromInstance( crawler, instance, depth, depth, outdir );
+	}
+	
+	public static void extractFromInstance(
+			Crawler crawler, String instance, int minDepth, int maxDepth, String outdir) {
+
+		extractFromInstance( Fragment.from(crawler), instance, shortenURI(instance), minDepth, maxDepth, outdir, ".ttl" );
+	}
+	
+	// 1 つの Fragment を minDepth から 1 段ずつ深くし，深さごとに outdir/<name>_dep<深さ> に書き出す．
+	// チェックポイントから戻した Fragment は，戻した深さより浅い分を前回書き出しているので書き直さない
+	private static void extractFromInstance(Fragment fragment,
+			String instance, String name, int minDepth, int maxDepth, String outdir, String extension) {
+
+		for (int depth = Math.max( minDepth, fragment.depthOf(instance) ); depth <= maxDepth; depth++) {
+			fragment.expand( instance, depth );
+			val outfile = outdir + name + "_dep" + depth + extension;
+			fragment.output( outfile );
+		}
+	}
+	
+	// resume = true なら前回のチェックポイントの続きから始める．checkpointinterval は秒
+	private static Checkpoint openCheckpoint(
+			Configuration config, Path dir, Fragment fragment, String instance) throws IOException {
+
+		val interval = TimeUnit.SECONDS.toMillis( config.getLong("checkpointinterval", 5) );
+		if ( !config.getBoolean("resume", false) ) {
+			return Checkpoint.create(dir, interval);
+		}
+
+		val checkpoint = Checkpoint.open(dir, interval);
+		val state = checkpoint.restore();
+		if ( state.isPresent() ) {
+			if ( !state.get().getSeed().getURI().equals(instance) ) {
+				checkpoint.close();
+				throw new IllegalStateException(
+						"checkpoint in " + dir + " is for " + state.get().getSeed() + ", not " + instance);
+			}
+			fragment.restore( state.get() );
+		}
+
+		return checkpoint;
 	}
 	
 	public static void main(String[] args) {
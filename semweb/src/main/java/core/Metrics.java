@@ -0,0 +1,297 @@
+package core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+// クエリの種類ごとの件数，応答時間の分布，返ってきたトリプル数とバイト数，キャッシュに当たった数，
+// 応答の形式ごとのバイト数と読み込み時間と，
+// Fragment.expand の段階ごとの所要時間を数える．複数のスレッドから同時に記録してよい
+@Slf4j
+public class Metrics implements MetricsMXBean {
+
+	private static final int BUCKETS = 24;
+
+	// N-Triples の 1 行で，ノードの文字列以外にかかる分 ("<> <> <> .\n" など)
+	private static final int LINE_OVERHEAD = 10;
+
+	private static class KindStats {
+		final LongAdder       queries      = new LongAdder();
+		final LongAdder       triples      = new LongAdder();
+		final LongAdder       bytes        = new LongAdder();
+		final LongAdder       responseHits = new LongAdder();
+		final LongAdder       lookupHits   = new LongAdder();
+		final LongAdder       latencyNanos = new LongAdder();
+		final AtomicLongArray histogram    = new AtomicLongArray(BUCKETS);
+	}
+
+	private static class FormatStats {
+		final LongAdder responses  = new LongAdder();
+		final LongAdder bytes      = new LongAdder();
+		final LongAdder parseNanos = new LongAdder();
+	}
+
+	private final Map<QueryKind, KindStats> kinds = new EnumMap<>(QueryKind.class);
+
+	// 応答の Content-Type (引数を除く) ごと
+	private final Map<String, FormatStats> formats = new ConcurrentSkipListMap<>();
+
+	// 実行した順に並べる
+	private final Map<String, LongAdder> phases = Collections.synchronizedMap(new LinkedHashMap<>());
+
+	public Metrics() {
+		for ( final QueryKind kind : QueryKind.values() ) {
+			kinds.put( kind, new KindStats() );
+		}
+	}
+
+	// エンドポイントに問い合わせた 1 回分．bytes は応答の大きさ
+	public void recordQuery(QueryKind kind, long nanos, long triples, long bytes) {
+		val stats = kinds.get(kind);
+		stats.queries.increment();
+		stats.triples.add(triples);
+		stats.bytes.add(bytes);
+		stats.latencyNanos.add(nanos);
+		stats.histogram.incrementAndGet( bucketOf(nanos) );
+	}
+
+	public void recordResponseCacheHit(QueryKind kind) {
+		kinds.get(kind).responseHits.increment();
+	}
+
+	public void recordLookupCacheHits(QueryKind kind, int resources) {
+		kinds.get(kind).lookupHits.add(resources);
+	}
+
+	// 応答 1 つ分．bytes は圧縮されたままの大きさ，nanos は読み込みにかかった時間
+	public void recordFormat(String contentType, long bytes, long nanos) {
+		String format = contentType == null ? "unknown" : contentType.split(";")[0].trim();
+		FormatStats stats = formats.computeIfAbsent( format, f -> new FormatStats() );
+		stats.responses.increment();
+		stats.bytes.add(bytes);
+		stats.parseNanos.add(nanos);
+	}
+
+	public void recordPhase(String name, long nanos) {
+		phases.computeIfAbsent( name, n -> new LongAdder() ).add(nanos);
+	}
+
+	private static int bucketOf(long nanos) {
+		val millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		val bucket = 64 - Long.numberOfLeadingZeros(millis);
+
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	// 応答の N-Triples での大きさを見積もる
+	public static long estimateBytes(Model model) {
+		long bytes = 0;
+		for ( final Statement statement : model.listStatements().toList() ) {
+			bytes += LINE_OVERHEAD
+					+ lengthOf( statement.getSubject()   )
+					+ lengthOf( statement.getPredicate() )
+					+ lengthOf( statement.getObject()    );
+		}
+
+		return bytes;
+	}
+
+	private static int lengthOf(RDFNode node) {
+		if ( node.isLiteral() ) {
+			return node.asLiteral().getLexicalForm().length() + node.asLiteral().getDatatypeURI().length();
+		}
+
+		return node.toString().length();
+	}
+
+	private Map<String, Long> collect(Function<KindStats, LongAdder> field) {
+		val result = new LinkedHashMap<String, Long>();
+		kinds.forEach( (kind, stats) -> result.put( kind.name(), field.apply(stats).sum() ) );
+
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getQueryCounts() {
+		return collect( s -> s.queries );
+	}
+
+	@Override
+	public Map<String, Long> getTriples() {
+		return collect( s -> s.triples );
+	}
+
+	@Override
+	public Map<String, Long> getBytes() {
+		return collect( s -> s.bytes );
+	}
+
+	@Override
+	public Map<String, Long> getResponseCacheHits() {
+		return collect( s -> s.responseHits );
+	}
+
+	@Override
+	public Map<String, Long> getLookupCacheHits() {
+		return collect( s -> s.lookupHits );
+	}
+
+	@Override
+	public Map<String, Double> getMeanLatencyMillis() {
+		val result = new LinkedHashMap<String, Double>();
+		kinds.forEach( (kind, stats) -> result.put( kind.name(), meanMillis(stats) ) );
+
+		return result;
+	}
+
+	private static double meanMillis(KindStats stats) {
+		val queries = stats.queries.sum();
+
+		return queries == 0 ? 0.0 : stats.latencyNanos.sum() / 1e6 / queries;
+	}
+
+	@Override
+	public Map<String, long[]> getLatencyHistograms() {
+		val result = new LinkedHashMap<String, long[]>();
+		kinds.forEach( (kind, stats) -> result.put( kind.name(), toArray(stats.histogram) ) );
+
+		return result;
+	}
+
+	private static long[] toArray(AtomicLongArray histogram) {
+		long[] result = new long[ histogram.length() ];
+		for ( int i = 0; i < result.length; i++ ) {
+			result[i] = histogram.get(i);
+		}
+
+		return result;
+	}
+
+	// 分布の q 分位点を含む区間の上端 (ms)
+	private static long percentileMillis(KindStats stats, double q) {
+		val total = stats.queries.sum();
+		if ( total == 0 ) {
+			return 0;
+		}
+
+		long seen = 0;
+		for ( int i = 0; i < BUCKETS; i++ ) {
+			seen += stats.histogram.get(i);
+			if ( seen >= Math.ceil(total * q) ) {
+				return 1L << i;
+			}
+		}
+
+		return 1L << (BUCKETS - 1);
+	}
+
+	@Override
+	public Map<String, Long> getPhaseMillis() {
+		val result = new LinkedHashMap<String, Long>();
+		synchronized (phases) {
+			phases.forEach( (name, nanos) -> result.put( name, TimeUnit.NANOSECONDS.toMillis(nanos.sum()) ) );
+		}
+
+		return result;
+	}
+
+	private Map<String, Long> collectFormats(Function<FormatStats, Long> field) {
+		val result = new LinkedHashMap<String, Long>();
+		formats.forEach( (format, stats) -> result.put( format, field.apply(stats) ) );
+
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getFormatResponses() {
+		return collectFormats( s -> s.responses.sum() );
+	}
+
+	@Override
+	public Map<String, Long> getFormatBytes() {
+		return collectFormats( s -> s.bytes.sum() );
+	}
+
+	@Override
+	public Map<String, Long> getFormatParseMillis() {
+		return collectFormats( s -> TimeUnit.NANOSECONDS.toMillis( s.parseNanos.sum() ) );
+	}
+
+	@Override
+	public void reset() {
+		for ( final KindStats stats : kinds.values() ) {
+			stats.queries.reset();
+			stats.triples.reset();
+			stats.bytes.reset();
+			stats.responseHits.reset();
+			stats.lookupHits.reset();
+			stats.latencyNanos.reset();
+			for ( int i = 0; i < BUCKETS; i++ ) {
+				stats.histogram.set(i, 0);
+			}
+		}
+		phases.clear();
+		formats.clear();
+	}
+
+	// プラットフォームの MBeanServer に core:type=Metrics,name=<name> として登録する
+	public void register(String name) {
+		try {
+			val objectName = new ObjectName( "core:type=Metrics,name=" + ObjectName.quote(name) );
+			val server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered(objectName) ) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+		} catch (JMException e) {
+			log.warn("cannot register metrics {}: {}", name, e.toString());
+		}
+	}
+
+	public String report() {
+		val builder = new StringBuilder();
+		builder.append( String.format("%-15s %8s %10s %12s %8s %8s %10s %8s %8s%n",
+				"query", "count", "triples", "bytes", "resp-hit", "lookup", "mean(ms)", "p50(ms)", "p99(ms)") );
+
+		kinds.forEach( (kind, stats) -> {
+			if ( stats.queries.sum() + stats.responseHits.sum() + stats.lookupHits.sum() == 0 ) {
+				return ;
+			}
+
+			builder.append( String.format("%-15s %8d %10d %12d %8d %8d %10.1f %8d %8d%n",
+					kind, stats.queries.sum(), stats.triples.sum(), stats.bytes.sum(),
+					stats.responseHits.sum(), stats.lookupHits.sum(), meanMillis(stats),
+					percentileMillis(stats, 0.5), percentileMillis(stats, 0.99)) );
+		});
+
+		if ( !formats.isEmpty() ) {
+			builder.append( String.format("%-32s %8s %12s %10s%n", "format", "count", "wire bytes", "parse(ms)") );
+			formats.forEach( (format, stats) ->
+					builder.append( String.format("%-32s %8d %12d %10d%n", format, stats.responses.sum(),
+							stats.bytes.sum(), TimeUnit.NANOSECONDS.toMillis( stats.parseNanos.sum() )) ) );
+		}
+
+		builder.append( String.format("%-15s %10s%n", "phase", "time(ms)") );
+		getPhaseMillis().forEach( (name, millis) ->
+				builder.append( String.format("%-15s %10d%n", name, millis) ) );
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,33 @@
+package core;
+
+import java.util.Map;
+
+// JMX から見える Metrics の値．キーは QueryKind の名前か段階の名前，応答の形式 (Content-Type)
+public interface MetricsMXBean {
+
+	Map<String, Long> getQueryCounts();
+
+	Map<String, Long> getTriples();
+
+	Map<String, Long> getBytes();
+
+	Map<String, Long> getResponseCacheHits();
+
+	Map<String, Long> getLookupCacheHits();
+
+	Map<String, Double> getMeanLatencyMillis();
+
+	// i 番目は 2^(i-1) ms 以上 2^i ms 未満の件数 (0 番目は 1 ms 未満)
+	Map<String, long[]> getLatencyHistograms();
+
+	Map<String, Long> getPhaseMillis();
+
+	Map<String, Long> getFormatResponses();
+
+	// 圧縮されたままの大きさ
+	Map<String, Long> getFormatBytes();
+
+	Map<String, Long> getFormatParseMillis();
+
+	void reset();
+}
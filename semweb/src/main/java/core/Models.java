@@ -0,0 +1,50 @@
+package core;
+
+import java.util.Collection;
+
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.compose.MultiUnion;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+// 複数の Model を写さずに 1 つに見せる．
+// lookupCache の Model は共有しているので，見せ方だけを変え，中身には触らない
+final class Models {
+
+	private Models() {
+	}
+
+	// models の和を読み出す Model．書き込みは先頭に置いた空のグラフにだけ入る．
+	// 渡した Model はこのあと変えないこと (ビューを通して見えてしまう)
+	static Model union(Collection<Model> models) {
+		Union union = new Union();
+		for ( final Model model : models ) {
+			if ( !model.isEmpty() ) {
+				union.addGraph( model.getGraph() );
+			}
+		}
+
+		return ModelFactory.createModelForGraph(union);
+	}
+
+	private static class Union extends MultiUnion {
+
+		// 最初に足したグラフが書き込み先になる
+		Union() {
+			addGraph( Factory.createGraphMem() );
+		}
+
+		// size () は全件をたどるので，部分グラフの isEmpty で済ませる
+		@Override
+		public boolean isEmpty() {
+			for ( final Graph graph : m_subGraphs ) {
+				if ( !graph.isEmpty() ) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
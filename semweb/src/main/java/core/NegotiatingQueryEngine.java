@@ -0,0 +1,207 @@
+package core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import lombok.Getter;
+import lombok.val;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
+import org.apache.jena.atlas.web.ContentType;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.WebContent;
+
+import com.google.common.io.CountingInputStream;
+import com.hp.hpl.jena.query.QueryException;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.engine.http.QueryEngineHTTP;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+
+// 結果の形式を Accept で選び，圧縮した応答を受け付ける QueryEngineHTTP．
+// Jena の HttpQuery は応答のストリームを外に見せないので，HTTP は自前で投げ，
+// 圧縮されたままのバイト数と，読み込みにかかった時間を残す
+public class NegotiatingQueryEngine extends QueryEngineHTTP {
+
+	// 速く読める順に並べる．Virtuoso は N-Triples を text/plain で返す
+	public static final String CONSTRUCT_FORMATS = String.join(", ",
+			WebContent.contentTypeNTriples,
+			WebContent.contentTypeTextPlain   + ";q=0.9",
+			WebContent.contentTypeTurtle      + ";q=0.8",
+			WebContent.contentTypeRDFXML      + ";q=0.5");
+
+	public static final String RESULT_FORMATS = String.join(", ",
+			WebContent.contentTypeResultsJSON,
+			WebContent.contentTypeResultsXML  + ";q=0.9");
+
+	// これより長い URL になるクエリは POST で送る
+	private static final int URL_LIMIT = 2000;
+
+	private static final HttpClient CLIENT = createClient();
+
+	private static HttpClient createClient() {
+		val connections = new PoolingClientConnectionManager();
+		connections.setMaxTotal(256);
+		connections.setDefaultMaxPerRoute(64);
+
+		return new DefaultHttpClient(connections);
+	}
+
+	private final String endpointURL;
+	private final String query;
+	private final boolean compress;
+
+	private long timeoutMillis = -1;
+
+	// 直前の実行の応答の Content-Type，圧縮されたままのバイト数，読み込みにかかった時間
+	@Getter
+	private String contentType;
+	@Getter
+	private long wireBytes;
+	@Getter
+	private long parseNanos;
+
+	public NegotiatingQueryEngine(String endpointURL, String query, boolean compress) {
+		super(endpointURL, query);
+		this.endpointURL = endpointURL;
+		this.query       = query;
+		this.compress    = compress;
+	}
+
+	@Override
+	public void setTimeout(long timeout) {
+		super.setTimeout(timeout);
+		this.timeoutMillis = timeout;
+	}
+
+	@Override
+	public void setTimeout(long timeout, TimeUnit unit) {
+		super.setTimeout(timeout, unit);
+		this.timeoutMillis = unit.toMillis(timeout);
+	}
+
+	@Override
+	public Model execConstruct() {
+		return execConstruct( ModelFactory.createDefaultModel() );
+	}
+
+	@Override
+	public Model execConstruct(Model model) {
+		return execute( CONSTRUCT_FORMATS, in -> {
+			Lang lang = RDFLanguages.contentTypeToLang( mediaType() );
+			if ( lang == null ) {
+				throw new QueryException("unsupported content type: " + contentType);
+			}
+			RDFDataMgr.read(model, in, lang);
+			return model;
+		});
+	}
+
+	// 結果はここで読み切る (接続を早く返すため)
+	@Override
+	public ResultSet execSelect() {
+		return execute( RESULT_FORMATS, in -> {
+			if ( mediaType().equals(WebContent.contentTypeResultsJSON) ) {
+				return ResultSetFactory.copyResults( ResultSetFactory.fromJSON(in) );
+			}
+			return ResultSetFactory.copyResults( ResultSetFactory.fromXML(in) );
+		});
+	}
+
+	private String mediaType() {
+		return contentType == null ? "" : ContentType.create(contentType).getContentType();
+	}
+
+	private interface Parser<T> {
+		T parse(InputStream in) throws IOException;
+	}
+
+	private <T> T execute(String accept, Parser<T> parser) {
+		val request = createRequest();
+		request.setHeader( "Accept", accept );
+		if ( compress ) {
+			request.setHeader( "Accept-Encoding", "gzip, deflate" );
+		}
+		if ( timeoutMillis > 0 ) {
+			HttpConnectionParams.setConnectionTimeout( request.getParams(), (int) timeoutMillis );
+			HttpConnectionParams.setSoTimeout       ( request.getParams(), (int) timeoutMillis );
+		}
+
+		try {
+			HttpResponse response = CLIENT.execute(request);
+			val status = response.getStatusLine();
+			if ( status.getStatusCode() != 200 ) {
+				EntityUtils.consumeQuietly( response.getEntity() );
+				throw new QueryExceptionHTTP( status.getStatusCode(), status.getReasonPhrase() );
+			}
+
+			val entity = response.getEntity();
+			contentType = entity.getContentType() == null ? null : entity.getContentType().getValue();
+			String encoding = entity.getContentEncoding() == null ? "" : entity.getContentEncoding().getValue();
+
+			val start = System.nanoTime();
+			try ( CountingInputStream wire = new CountingInputStream( entity.getContent() );
+					InputStream in = decode(wire, encoding) ) {
+				// RDFDataMgr は読み終えると閉じるので，数えるのは読み終えてから
+				T result = parser.parse(in);
+				wireBytes  = wire.getCount();
+				parseNanos = System.nanoTime() - start;
+				return result;
+			}
+		} catch (IOException e) {
+			request.abort();
+			throw new QueryExceptionHTTP(e);
+		} catch (RuntimeException e) {
+			request.abort();
+			throw e;
+		}
+	}
+
+	private HttpRequestBase createRequest() {
+		try {
+			val url = endpointURL + ( endpointURL.contains("?") ? "&" : "?" )
+					+ "query=" + URLEncoder.encode( query, StandardCharsets.UTF_8.name() );
+			if ( url.length() <= URL_LIMIT ) {
+				return new HttpGet(url);
+			}
+
+			val post = new HttpPost(endpointURL);
+			post.setEntity( new UrlEncodedFormEntity(
+					Arrays.asList( new BasicNameValuePair("query", query) ), StandardCharsets.UTF_8.name() ) );
+			return post;
+		} catch (IOException e) {
+			throw new QueryExceptionHTTP(e);
+		}
+	}
+
+	private static InputStream decode(InputStream in, String encoding) throws IOException {
+		switch ( encoding.trim().toLowerCase() ) {
+		case "gzip":
+			return new GZIPInputStream(in);
+		case "deflate":
+			return new InflaterInputStream(in);
+		default:
+			return in;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package core;
+
+import java.util.Arrays;
+
+import com.hp.hpl.jena.graph.Node;
+
+// Node と int の対応．id は追加した順に 0 から振る．
+// 索引は id + 1 を入れた開番地法の表で，Node のほかに 1 つあたり int 2 つ分ほどしか使わない
+final class NodeDictionary {
+
+	static final int NONE = -1;
+
+	private static final double LOAD_FACTOR = 0.6;
+
+	private Node[] nodes = new Node[1024];
+	private int[]  table = new int[2048];
+	private int    size;
+
+	int size() {
+		return size;
+	}
+
+	Node node(int id) {
+		return nodes[id];
+	}
+
+	// 無ければ NONE
+	int lookup(Node node) {
+		int mask = table.length - 1;
+		for ( int i = spread( node.hashCode() ) & mask; table[i] != 0; i = (i + 1) & mask ) {
+			int id = table[i] - 1;
+			if ( nodes[id].equals(node) ) {
+				return id;
+			}
+		}
+
+		return NONE;
+	}
+
+	int intern(Node node) {
+		int id = lookup(node);
+		if ( id != NONE ) {
+			return id;
+		}
+
+		if ( size == nodes.length ) {
+			nodes = Arrays.copyOf( nodes, size * 2 );
+		}
+		if ( size + 1 > table.length * LOAD_FACTOR ) {
+			rehash( table.length * 2 );
+		}
+
+		id = size++;
+		nodes[id] = node;
+		insert(id);
+
+		return id;
+	}
+
+	private void insert(int id) {
+		int mask = table.length - 1;
+		int i = spread( nodes[id].hashCode() ) & mask;
+		while ( table[i] != 0 ) {
+			i = (i + 1) & mask;
+		}
+		table[i] = id + 1;
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		for ( int id = 0; id < size; id++ ) {
+			insert(id);
+		}
+	}
+
+	static int spread(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,102 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+// Fragment.expand の 1 段階．前回の実行から渡されたトリプルだけを見て対象を探し，
+// まだ問い合わせていないものだけをエンドポイントに問い合わせる
+@Slf4j
+@RequiredArgsConstructor
+class Phase {
+
+	@Getter
+	private final String name;
+
+	// トリプルの中からこの段階で問い合わせる対象を探す
+	private final Function<Model, Set<Resource>> discover;
+
+	// 対象について問い合わせた結果を返す
+	private final Function<Set<Resource>, Model> resolve;
+
+	@Getter
+	private final Set<Resource> resolved = new HashSet<>();
+
+	// 直前の run で問い合わせた対象
+	@Getter
+	private Set<Resource> lastResolved = new HashSet<>();
+
+	// 渡されたがまだ run で見ていないトリプル．offer は run と別のスレッドから呼んでよい．
+	// 渡された Model は写さずに持ち，run ではそれらのビューを見る
+	private final List<Model> pending = new ArrayList<>();
+
+	public synchronized void offer(Model triples) {
+		if ( !triples.isEmpty() ) {
+			pending.add(triples);
+		}
+	}
+
+	public synchronized boolean hasPending() {
+		return !pending.isEmpty();
+	}
+
+	public synchronized Model getPending() {
+		return Models.union( new ArrayList<>(pending) );
+	}
+
+	// チェックポイントから読み込んだ状態に戻す
+	public synchronized void restore(Set<Resource> resolved, Model pending) {
+		this.resolved.addAll(resolved);
+		offer(pending);
+	}
+
+	// 直前の run で見た pending の数
+	private int taken = 0;
+
+	// 問い合わせが終わっても acknowledge まで pending から消さないので，途中のチェックポイントにも残る
+	public Model run() {
+		List<Model> taken;
+		synchronized (this) {
+			taken = new ArrayList<>(pending);
+		}
+		Model input = Models.union(taken);
+
+		Set<Resource> items = discover.apply(input).stream()
+				.filter ( i -> !resolved.contains(i) )
+				.collect( Collectors.toSet() );
+		log.info("{}: {} new items", name, items.size());
+
+		Model result = items.isEmpty() ? ModelFactory.createDefaultModel() : resolve.apply(items);
+
+		synchronized (this) {
+			lastResolved = items;
+			this.taken   = taken.size();
+		}
+
+		return result;
+	}
+
+	// run の結果を渡し終えたら，問い合わせた対象を resolved に入れ，run で見たトリプルを pending から消す．
+	// 結果を渡すのと同じロックの中で呼べば，その間のチェックポイントが結果を取りこぼさない．
+	// 消した Model の数を返す
+	public synchronized int acknowledge() {
+		resolved.addAll(lastResolved);
+		// run の間に offer されたものは後ろに足されている
+		int consumed = taken;
+		pending.subList( 0, consumed ).clear();
+		taken = 0;
+
+		return consumed;
+	}
+}
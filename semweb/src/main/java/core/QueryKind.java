@@ -0,0 +1,14 @@
+package core;
+
+public enum QueryKind {
+	PATH,
+	INBOUND,
+	TYPE,
+	DOMAIN,
+	RANGE,
+	SUPER_CLASS,
+	SUPER_PROPERTY,
+	SUB_CLASS,
+	ASK,
+	DEGREE,
+}
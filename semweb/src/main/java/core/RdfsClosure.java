@@ -0,0 +1,101 @@
+package core;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.val;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+// 問い合わせて得たスキーマ (クラス・プロパティの階層と domain, range) を手元に溜め，
+// 上位クラス・上位プロパティと，そこから導かれる型を問い合わせずに答える
+public class RdfsClosure {
+
+	@Getter
+	private final Hierarchy classes    = new Hierarchy(RDFS.subClassOf);
+	@Getter
+	private final Hierarchy properties = new Hierarchy(RDFS.subPropertyOf);
+
+	private final SetMultimap<Resource, Resource> domains = Multimaps.synchronizedSetMultimap( HashMultimap.create() );
+	private final SetMultimap<Resource, Resource> ranges  = Multimaps.synchronizedSetMultimap( HashMultimap.create() );
+
+	// model の rdfs:domain, rdfs:range を覚える
+	public void addPropertyInfo(Model model) {
+		for ( final Statement statement : model.listStatements(null, RDFS.domain, (RDFNode) null).toList() ) {
+			if ( statement.getObject().isResource() ) {
+				domains.put( statement.getSubject(), statement.getObject().asResource() );
+			}
+		}
+		for ( final Statement statement : model.listStatements(null, RDFS.range, (RDFNode) null).toList() ) {
+			if ( statement.getObject().isResource() ) {
+				ranges.put( statement.getSubject(), statement.getObject().asResource() );
+			}
+		}
+	}
+
+	// model から導かれる rdf:type のうち，model に無いもの．
+	// rdf:type の上位クラス (rdfs9) と，上位プロパティを含めた domain, range (rdfs2, 3, 7) を使う
+	public Model inferTypes(Model model) {
+		val inferred = ModelFactory.createDefaultModel();
+		Map<Resource, Set<Resource>> superClasses    = new HashMap<>();
+		Map<Resource, Set<Resource>> superProperties = new HashMap<>();
+
+		for ( final Statement statement : model.listStatements().toList() ) {
+			val subject   = statement.getSubject();
+			val predicate = statement.getPredicate();
+			val object    = statement.getObject();
+
+			if ( predicate.equals(RDF.type) ) {
+				if ( object.isURIResource() ) {
+					addTypes( inferred, subject, object.asResource(), superClasses );
+				}
+				continue;
+			}
+
+			for ( final Resource property : superProperties.computeIfAbsent( predicate, properties::ancestorsOf ) ) {
+				for ( final Resource domain : domainsOf(property) ) {
+					addTypes( inferred, subject, domain, superClasses );
+				}
+				if ( object.isResource() ) {
+					for ( final Resource range : rangesOf(property) ) {
+						addTypes( inferred, object.asResource(), range, superClasses );
+					}
+				}
+			}
+		}
+
+		return inferred.remove(model);
+	}
+
+	private void addTypes(Model inferred, Resource instance, Resource type,
+			Map<Resource, Set<Resource>> superClasses) {
+
+		for ( final Resource c : superClasses.computeIfAbsent( type, classes::ancestorsOf ) ) {
+			inferred.add( instance, RDF.type, c );
+		}
+	}
+
+	private Set<Resource> domainsOf(Resource property) {
+		synchronized (domains) {
+			return new HashSet<>( domains.get(property) );
+		}
+	}
+
+	private Set<Resource> rangesOf(Resource property) {
+		synchronized (ranges) {
+			return new HashSet<>( ranges.get(property) );
+		}
+	}
+}
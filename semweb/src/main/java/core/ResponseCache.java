@@ -0,0 +1,229 @@
+package core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.AllArgsConstructor;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+
+import com.google.common.hash.Hashing;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+// エンドポイントの応答をディスクに保存する．キーはエンドポイント URL と正規化したクエリのハッシュ．
+// 書き込みは一時ファイルからの rename なので，同じディレクトリを複数のクロールで共有してよい
+@Slf4j
+public class ResponseCache {
+
+	private static final String MODEL_SUFFIX = ".nt";
+
+	private final Path directory;
+	private final long ttlMillis;
+	private final long maxBytes;
+
+	private final AtomicLong size   = new AtomicLong();
+	private final AtomicLong hits   = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public ResponseCache(Path directory, long ttlMillis, long maxBytes) {
+		this.directory = directory;
+		this.ttlMillis = ttlMillis;
+		this.maxBytes  = maxBytes;
+
+		try {
+			Files.createDirectories(directory);
+			size.set( listEntries().stream().mapToLong( e -> e.size ).sum() );
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot open cache directory " + directory, e);
+		}
+	}
+
+	public long hitCount() {
+		return hits.get();
+	}
+
+	public long missCount() {
+		return misses.get();
+	}
+
+	public Optional<Model> getModel(String endpoint, String query) {
+		val file = pathOf(endpoint, query, MODEL_SUFFIX);
+
+		return read(file, in -> {
+			Model model = ModelFactory.createDefaultModel();
+			RDFDataMgr.read(model, in, Lang.NTRIPLES);
+			return model;
+		});
+	}
+
+	public void putModel(String endpoint, String query, Model model) {
+		write( pathOf(endpoint, query, MODEL_SUFFIX), out -> model.write(out, "N-TRIPLES") );
+	}
+
+	@Override
+	public String toString() {
+		return String.format("cache %s: hit = %d, miss = %d, size = %d bytes",
+				directory, hits.get(), misses.get(), size.get());
+	}
+
+	private static String normalize(String query) {
+		return query.trim().replaceAll("\\s+", " ");
+	}
+
+	private Path pathOf(String endpoint, String query, String suffix) {
+		val key = Hashing.sha256()
+				.hashString( endpoint + "\n" + normalize(query), StandardCharsets.UTF_8 )
+				.toString();
+
+		return directory.resolve( key.substring(0, 2) ).resolve( key + suffix );
+	}
+
+	private <T> Optional<T> read(Path file, Reader<T> reader) {
+		try {
+			val attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			if ( isExpired(attributes) ) {
+				delete(file, attributes.size());
+				misses.incrementAndGet();
+				return Optional.empty();
+			}
+
+			T value;
+			try ( InputStream in = Files.newInputStream(file) ) {
+				value = reader.read(in);
+			}
+			touch(file);
+
+			hits.incrementAndGet();
+			return Optional.of(value);
+		} catch (NoSuchFileException e) {
+			misses.incrementAndGet();
+			return Optional.empty();
+		} catch (IOException | RuntimeException e) {
+			log.warn("cannot read cache entry {}: {}", file, e.toString());
+			misses.incrementAndGet();
+			return Optional.empty();
+		}
+	}
+
+	private void write(Path file, Writer writer) {
+		try {
+			Files.createDirectories( file.getParent() );
+
+			val temp = Files.createTempFile( file.getParent(), "tmp", null );
+			try ( OutputStream out = Files.newOutputStream(temp) ) {
+				writer.write(out);
+			}
+			val bytes = Files.size(temp);
+			// 置き換える場合は前の分を引く
+			val previous = sizeOf(file);
+			Files.move( temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+
+			if ( size.addAndGet(bytes - previous) > maxBytes ) {
+				evict();
+			}
+		} catch (IOException e) {
+			log.warn("cannot write cache entry {}: {}", file, e.toString());
+		}
+	}
+
+	private static long sizeOf(Path file) throws IOException {
+		try {
+			return Files.size(file);
+		} catch (NoSuchFileException e) {
+			return 0;
+		}
+	}
+
+	private boolean isExpired(BasicFileAttributes attributes) {
+		return System.currentTimeMillis() - attributes.lastModifiedTime().toMillis() > ttlMillis;
+	}
+
+	// 最終アクセス時刻を LRU の順序に使う．noatime でも効くように明示的に更新する
+	private void touch(Path file) throws IOException {
+		Files.getFileAttributeView(file, BasicFileAttributeView.class)
+				.setTimes( null, FileTime.fromMillis(System.currentTimeMillis()), null );
+	}
+
+	private void delete(Path file, long bytes) {
+		try {
+			if ( Files.deleteIfExists(file) ) {
+				size.addAndGet(-bytes);
+			}
+		} catch (IOException e) {
+			log.warn("cannot delete cache entry {}: {}", file, e.toString());
+		}
+	}
+
+	// 他のプロセスが書き足している可能性があるので，ディレクトリを読み直してから古いものを消す
+	private synchronized void evict() throws IOException {
+		val entries = listEntries();
+		size.set( entries.stream().mapToLong( e -> e.size ).sum() );
+
+		val target = maxBytes * 9 / 10;
+		entries.sort( Comparator.comparing( e -> e.accessed ) );
+
+		for ( final Entry entry : entries ) {
+			if ( size.get() <= target ) {
+				break;
+			}
+			delete(entry.path, entry.size);
+		}
+
+		log.debug("evicted cache down to {} bytes", size.get());
+	}
+
+	private List<Entry> listEntries() throws IOException {
+		try ( Stream<Path> files = Files.walk(directory) ) {
+			val paths = files
+					.filter ( f -> f.toString().endsWith(MODEL_SUFFIX) )
+					.collect( Collectors.toList() );
+
+			val entries = new ArrayList<Entry>();
+			for ( final Path path : paths ) {
+				try {
+					val attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					entries.add( new Entry(path, attributes.size(), attributes.lastAccessTime()) );
+				} catch (NoSuchFileException e) {
+					// 他のプロセスが消した
+				}
+			}
+
+			return entries;
+		}
+	}
+
+	@AllArgsConstructor
+	private static class Entry {
+		final Path     path;
+		final long     size;
+		final FileTime accessed;
+	}
+
+	private interface Reader<T> {
+		T read(InputStream in) throws IOException;
+	}
+
+	private interface Writer {
+		void write(OutputStream out) throws IOException;
+	}
+}
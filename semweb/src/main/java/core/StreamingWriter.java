@@ -0,0 +1,134 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.jena.atlas.io.StringWriterI;
+import org.apache.jena.riot.out.NodeFormatter;
+import org.apache.jena.riot.out.NodeFormatterNT;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+// 届いたトリプルをその場で N-Triples として追記する．
+// 重複は 64bit ハッシュの集合で弾くので，トリプル自体はメモリに残らない
+// (衝突で落ちる確率は 1 億トリプルでも 1/1000 程度)．
+// 書き込みが途絶えても (遅い問い合わせを待っている間も) flushIntervalMillis ごとにディスクへ書き出す
+@Slf4j
+public class StreamingWriter implements Closeable {
+
+	private static final HashFunction  HASH      = Hashing.murmur3_128();
+	private static final NodeFormatter FORMATTER = new NodeFormatterNT();
+
+	@Getter
+	private final Path path;
+	private final long flushIntervalMillis;
+
+	private final Writer      out;
+	private final LongHashSet seen = new LongHashSet(1 << 16);
+	private long lastFlush = System.currentTimeMillis();
+
+	// flushIntervalMillis ごとに flush する．0 以下なら add のたびに flush するので使わない
+	private final ScheduledExecutorService flusher;
+
+	public StreamingWriter(Path path, long flushIntervalMillis) throws IOException {
+		this.path = path;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.out = Files.newBufferedWriter( path, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE );
+
+		if ( flushIntervalMillis > 0 ) {
+			flusher = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setNameFormat("flusher-%d").setDaemon(true).build() );
+			flusher.scheduleWithFixedDelay( this::flushIfDue,
+					flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS );
+		} else {
+			flusher = null;
+		}
+	}
+
+	private synchronized void flushIfDue() {
+		try {
+			if ( System.currentTimeMillis() - lastFlush >= flushIntervalMillis ) {
+				flush();
+			}
+		} catch (IOException e) {
+			log.warn("cannot flush {}: {}", path, e.toString());
+		}
+	}
+
+	public synchronized long size() {
+		return seen.size();
+	}
+
+	public synchronized void add(Model triples) {
+		try {
+			for ( final Statement statement : triples.listStatements().toList() ) {
+				write( statement.asTriple() );
+			}
+
+			if ( System.currentTimeMillis() - lastFlush >= flushIntervalMillis ) {
+				flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String toLine(Triple triple) {
+		val line = new StringWriterI();
+		FORMATTER.format( line, triple.getSubject()   );
+		line.print(' ');
+		FORMATTER.format( line, triple.getPredicate() );
+		line.print(' ');
+		FORMATTER.format( line, triple.getObject()    );
+		line.print(" .\n");
+
+		return line.toString();
+	}
+
+	private void write(Triple triple) throws IOException {
+		val line = toLine(triple);
+		if ( seen.add( HASH.hashString(line, StandardCharsets.UTF_8).asLong() ) ) {
+			out.write(line);
+		}
+	}
+
+	public synchronized void flush() throws IOException {
+		out.flush();
+		lastFlush = System.currentTimeMillis();
+		log.debug("flushed {} triples to {}", seen.size(), path);
+	}
+
+	// ここまでに書いた内容を target に写す
+	public synchronized void snapshot(Path target) throws IOException {
+		flush();
+		Files.copy( path, target, StandardCopyOption.REPLACE_EXISTING );
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if ( flusher != null ) {
+			flusher.shutdownNow();
+		}
+		out.close();
+	}
+}
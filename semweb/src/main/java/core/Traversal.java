@@ -0,0 +1,132 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+// 幅優先探索の途中状態．expandTo を呼ぶたびに前回の続きの段から辿る．
+// 一度展開したノードは再び問い合わせない
+@Slf4j
+public class Traversal {
+
+	// depth 段目のノードから出る辺を返す (ほかのノードの分も分かれば返してよい)．
+	// remaining はその段を含めて，expandTo がこの先辿る段数
+	public interface Fetch {
+		Map<Resource, Model> apply(int depth, int remaining, Set<Resource> nodes);
+	}
+
+	private final Fetch fetch;
+	private final Function<Model, Set<Resource>> neighbours;
+
+	private final Set<Resource>        visited = new HashSet<>();
+	private final Map<Resource, Model> known   = new HashMap<>();
+
+	@Getter
+	private Set<Resource> frontier;
+
+	@Getter
+	private int depth = 0;
+
+	// 1 段の frontier の上限．超えた分は IRI の順に捨て，展開しない．0 なら制限しない
+	@Setter
+	private int maxFrontier = 0;
+
+	public Traversal(Set<Resource> seeds,
+			Function<Set<Resource>, Map<Resource, Model>> fetch,
+			Function<Model, Set<Resource>> neighbours) {
+
+		this( seeds, (depth, nodes) -> fetch.apply(nodes), neighbours );
+	}
+
+	// 段によって辿る辺が変わるとき (向きごとに段数を決めた場合)
+	public Traversal(Set<Resource> seeds,
+			BiFunction<Integer, Set<Resource>, Map<Resource, Model>> fetch,
+			Function<Model, Set<Resource>> neighbours) {
+
+		this( seeds, (depth, remaining, nodes) -> fetch.apply(depth, nodes), neighbours );
+	}
+
+	// 残りの段数に合わせて，何段かまとめて問い合わせるとき
+	public Traversal(Set<Resource> seeds, Fetch fetch,
+			Function<Model, Set<Resource>> neighbours) {
+
+		this.frontier   = new HashSet<>(seeds);
+		this.fetch      = fetch;
+		this.neighbours = neighbours;
+	}
+
+	// チェックポイントから読み込んだ状態に戻す
+	public void restore(int depth, Set<Resource> visited, Set<Resource> frontier) {
+		this.depth    = depth;
+		this.frontier = new HashSet<>(frontier);
+		this.visited.addAll(visited);
+		this.known.clear();
+	}
+
+	public boolean isExhausted() {
+		return frontier.isEmpty();
+	}
+
+	// depth 段目まで辿り，新しく見つかった辺だけを返す．
+	// 辺は fetch が返した Model を写さずに並べたビューで返す
+	public Model expandTo(int depth) {
+		return expandTo(depth, depth);
+	}
+
+	// 1 段ずつ呼ぶ場合でも，最後に辿る段 horizon を fetch に伝え，先の段までまとめて問い合わせられるようにする
+	public Model expandTo(int depth, int horizon) {
+		val found = new ArrayList<Model>();
+
+		while ( this.depth < depth && !frontier.isEmpty() ) {
+			log.debug("depth = {}, frontier = {}", this.depth, frontier.size());
+
+			visited.addAll(frontier);
+			Set<Resource> missing = frontier.stream()
+					.filter ( n -> !known.containsKey(n) )
+					.collect( Collectors.toSet() );
+			if ( !missing.isEmpty() ) {
+				known.putAll( fetch.apply(this.depth, Math.max( depth, horizon ) - this.depth, missing) );
+			}
+
+			Set<Resource> next = new HashSet<>();
+			for ( final Resource node : frontier ) {
+				val edges = known.remove(node);
+				found.add(edges);
+				neighbours.apply(edges).stream()
+						.filter ( n -> !visited.contains(n) )
+						.forEach( next::add );
+			}
+
+			frontier = capped(next);
+			this.depth++;
+		}
+
+		return Models.union(found);
+	}
+
+	private Set<Resource> capped(Set<Resource> next) {
+		if ( maxFrontier <= 0 || next.size() <= maxFrontier ) {
+			return next;
+		}
+
+		log.info("frontier of {} nodes is cut down to {}", next.size(), maxFrontier);
+		return next.stream()
+				.sorted ( Comparator.comparing( Resource::toString ) )
+				.limit  ( maxFrontier )
+				.collect( Collectors.toSet() );
+	}
+}
@@ -0,0 +1,82 @@
+package core;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.val;
+
+// tracePropertyPathFrom で辿る辺の選び方．述語の絞り込みとハブの辺の上限は問い合わせに書き込み，
+// 要らない辺はエンドポイントから送らせない
+@Getter @Setter
+public class TraversalPolicy {
+
+	// 起点から出る辺，起点に入る辺，その両方
+	public enum Direction {
+		OUT,
+		IN,
+		BOTH,
+	}
+
+	private Direction direction = Direction.OUT;
+
+	// 向きごとに辺を辿る段数．0 なら expandTo に渡した段数まで辿る
+	private int outDepth = 0;
+	private int inDepth  = 0;
+
+	// 辿る述語の IRI．空ならすべて辿る
+	private Set<String> allow = Collections.emptySet();
+
+	// 辿らない述語の IRI (dbo:wikiPageWikiLink, owl:sameAs など)
+	private Set<String> deny = Collections.emptySet();
+
+	// 1 つのノードから辿る辺の上限．これを超えるノードはハブとみなす．0 なら制限しない
+	private int maxEdgesPerNode = 0;
+
+	// true ならハブからも maxEdgesPerNode 本だけ辿り，false ならハブの先は辿らない
+	private boolean sampleHubs = false;
+
+	// 1 段の frontier の上限．超えた分は展開しない．0 なら制限しない
+	private int maxFrontier = 0;
+
+	// depth 段目 (起点は 0 段目) のノードから出る辺を辿るか
+	public boolean followsOut(int depth) {
+		return direction != Direction.IN && ( outDepth <= 0 || depth < outDepth );
+	}
+
+	// depth 段目から，出る辺を remaining 段のうち何段続けて辿るか
+	public int outStepsFrom(int depth, int remaining) {
+		return outDepth <= 0 ? remaining : Math.min( remaining, outDepth - depth );
+	}
+
+	// depth 段目のノードに入る辺を辿るか
+	public boolean followsIn(int depth) {
+		return direction != Direction.OUT && ( inDepth <= 0 || depth < inDepth );
+	}
+
+	public boolean capsEdges() {
+		return maxEdgesPerNode > 0;
+	}
+
+	// variable に入る述語を絞る FILTER．絞らなければ空文字列
+	String filterOf(String variable) {
+		val filter = new StringBuilder();
+		if ( !allow.isEmpty() ) {
+			filter.append( String.format("FILTER(%s IN (%s)) ", variable, listOf(allow)) );
+		}
+		if ( !deny.isEmpty() ) {
+			filter.append( String.format("FILTER(%s NOT IN (%s)) ", variable, listOf(deny)) );
+		}
+
+		return filter.toString();
+	}
+
+	private static String listOf(Set<String> iris) {
+		return iris.stream()
+				.sorted ()
+				.map    ( iri -> "<" + iri + ">" )
+				.collect( Collectors.joining(", ") );
+	}
+}
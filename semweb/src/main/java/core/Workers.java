@@ -0,0 +1,85 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+// 問い合わせの並行数は，いちばん外側の map で決まる．
+// シードを seedparallelism 件ずつ並行に動かすときは，各シードの中のバッチは順に問い合わせるので，
+// 1 つのエンドポイントに同時に投げる問い合わせは seedparallelism 件まで．
+// 1 つのシードだけなら，バッチを Crawler の parallelism 件ずつ並行に問い合わせる．
+// fanOut はエンドポイントごとにスレッドを分けるだけで，この決まりを変えない
+final class Workers {
+
+	// ワーカーの中から呼ばれた map はその場で実行し，同時に動くタスクが parallelism を超えないようにする
+	private static final ThreadLocal<Boolean> IN_WORKER = ThreadLocal.withInitial( () -> false );
+
+	private Workers() {}
+
+	// items の順序で結果を返す．parallelism 件までのタスクを同時に実行する
+	static <T, R> List<R> map(
+			Collection<T> items, int parallelism, Function<? super T, ? extends R> task) {
+
+		if ( parallelism <= 1 || items.size() <= 1 || IN_WORKER.get() ) {
+			return items.stream().map( task ).collect( Collectors.toList() );
+		}
+
+		return run( items, Math.min(parallelism, items.size()), true, task );
+	}
+
+	// items をそれぞれ別のスレッドで実行する (宛先のエンドポイントごとに，同時に投げる数の上限が別にある場合)．
+	// タスクの中の map は，呼び出し元がワーカーの中ならその場で，そうでなければ並行に動かす
+	static <T, R> List<R> fanOut(Collection<T> items, Function<? super T, ? extends R> task) {
+		if ( items.size() <= 1 ) {
+			return items.stream().map( task ).collect( Collectors.toList() );
+		}
+
+		return run( items, items.size(), IN_WORKER.get(), task );
+	}
+
+	private static <T, R> List<R> run(
+			Collection<T> items, int threads, boolean inWorker, Function<? super T, ? extends R> task) {
+
+		ExecutorService pool = Executors.newFixedThreadPool( threads,
+				new ThreadFactoryBuilder().setNameFormat("crawler-%d").setDaemon(true).build());
+
+		try {
+			List<Future<? extends R>> futures = new ArrayList<>();
+			for ( final T item : items ) {
+				futures.add( pool.submit( () -> {
+					IN_WORKER.set(inWorker);
+					return task.apply(item);
+				}));
+			}
+
+			List<R> results = new ArrayList<>( futures.size() );
+			for ( final Future<? extends R> future : futures ) {
+				results.add( get(future) );
+			}
+
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static <R> R get(Future<R> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for endpoint", e);
+		} catch (ExecutionException e) {
+			throw Throwables.propagate( e.getCause() );
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import lombok.val;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+public class CompactGraphTest {
+
+	private static final String NAME_SPACE = "http://www.example.org/";
+
+	private static final Resource a = ResourceFactory.createResource( NAME_SPACE + "a" );
+	private static final Resource b = ResourceFactory.createResource( NAME_SPACE + "b" );
+	private static final Resource c = ResourceFactory.createResource( NAME_SPACE + "c" );
+	private static final Property p = ResourceFactory.createProperty( NAME_SPACE + "p" );
+
+	private Model sut;
+
+	@Before
+	public void setUp() {
+		sut = ModelFactory.createModelForGraph( new CompactGraph() );
+	}
+
+	@Test
+	public void add_ignoresDuplicates() throws Exception {
+		sut.add(a, p, b);
+		sut.add(a, p, b);
+		sut.add(a, p, "b");
+
+		assertThat( sut.size(), is(2L) );
+		assertThat( sut.contains(a, p, b), is(true) );
+		assertThat( sut.contains(a, p, "b"), is(true) );
+		assertThat( sut.contains(b, p, a), is(false) );
+	}
+
+	@Test
+	public void listStatements_findsBySubjectAndObject() throws Exception {
+		sut.add(a, p, b);
+		sut.add(a, RDF.type, c);
+		sut.add(b, p, c);
+
+		assertThat( sut.listStatements(a, null, (Resource) null).toList().size(), is(2) );
+		assertThat( sut.listStatements(null, null, c).toList().size(), is(2) );
+		assertThat( sut.listStatements(null, p, (Resource) null).toList().size(), is(2) );
+		assertThat( sut.listStatements(a, p, c).toList().size(), is(0) );
+	}
+
+	@Test
+	public void remove_hidesTripleUntilAddedAgain() throws Exception {
+		sut.add(a, p, b);
+		sut.add(b, p, c);
+		sut.remove(a, p, b);
+
+		assertThat( sut.size(), is(1L) );
+		assertThat( sut.listStatements(a, null, (Resource) null).hasNext(), is(false) );
+
+		sut.add(a, p, b);
+		assertThat( sut.size(), is(2L) );
+		assertThat( sut.contains(a, p, b), is(true) );
+	}
+
+	@Test
+	public void add_growsToManyTriples() throws Exception {
+		val expected = ModelFactory.createDefaultModel();
+		for ( int i = 0; i < 5000; i++ ) {
+			val node = ResourceFactory.createResource( NAME_SPACE + "n" + i );
+			sut.add(node, p, a);
+			sut.add(a, p, node);
+			expected.add(node, p, a);
+			expected.add(a, p, node);
+		}
+
+		assertThat( sut, is(modelOf(expected)) );
+		assertThat( sut.listStatements(null, null, a).toList().size(), is(5000) );
+	}
+}
@@ -3,24 +3,44 @@ package core;
 import static core.IsModel.modelOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import lombok.val;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import com.hp.hpl.jena.vocabulary.OWL;
 import com.hp.hpl.jena.vocabulary.RDF;
 import com.hp.hpl.jena.vocabulary.RDFS;
 
 public class CrawlerTest {
 	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private Model endpointMock;
+	private AtomicInteger queryCount;
 	private Crawler sut;
 
 	private static final String NAME_SPACE = "http://www.example.org/";
@@ -46,10 +66,12 @@ public class CrawlerTest {
 	@Before
 	public void setUp() {
 		endpointMock = ModelFactory.createDefaultModel();
+		queryCount = new AtomicInteger();
 		sut = new Crawler("mock of endpoint") {
 			@Override
 			public QueryExecution createQuery(String query) {
 				super.createQuery(query);
+				queryCount.incrementAndGet();
 				return QueryExecutionFactory.create(
 						insertPrefixList(query), endpointMock);
 			}
@@ -77,6 +99,331 @@ public class CrawlerTest {
 		assertThat( sut.tracePropertyPathFrom(a, 2), is(modelOf(expected)) );
 	}
 
+	@Test
+	public void tracePropertyPathFrom_skipsDeniedPredicates() throws Exception {
+		endpointMock.add(a, p, b);
+		endpointMock.add(a, q, c);
+		endpointMock.add(b, q, d);
+		endpointMock.add(b, p, e);
+
+		val policy = new TraversalPolicy();
+		policy.setDeny( Collections.singleton( q.getURI() ) );
+		sut.setTraversalPolicy(policy);
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a, p, b);
+		expected.add(b, p, e);
+
+		assertThat( sut.tracePropertyPathFrom(a, 2), is(modelOf(expected)) );
+		assertThat( Crawler.neighbourhoodQuery(2, policy).contains("FILTER(?p1 NOT IN (<" + q + ">))"), is(true) );
+	}
+
+	// a は辺が 3 本あるハブ
+	private void addHub() {
+		endpointMock.add(x, p, a);
+		endpointMock.add(a, p, b);
+		endpointMock.add(a, p, c);
+		endpointMock.add(a, p, d);
+	}
+
+	@Test
+	public void tracePropertyPathFrom_stopsAtHubs() throws Exception {
+		addHub();
+
+		val policy = new TraversalPolicy();
+		policy.setMaxEdgesPerNode(2);
+		sut.setTraversalPolicy(policy);
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(x, p, a);
+
+		assertThat( sut.tracePropertyPathFrom(x, 2), is(modelOf(expected)) );
+		assertThat( sut.getMetrics().getQueryCounts().get("DEGREE"), is(2L) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_samplesHubs() throws Exception {
+		addHub();
+
+		val policy = new TraversalPolicy();
+		policy.setMaxEdgesPerNode(2);
+		policy.setSampleHubs(true);
+		sut.setTraversalPolicy(policy);
+
+		val traced = sut.tracePropertyPathFrom(x, 2);
+
+		assertThat( traced.contains(x, p, a),                                    is(true) );
+		assertThat( traced.listStatements(a, p, (RDFNode) null).toList().size(), is(2)    );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_capsFrontier() throws Exception {
+		endpointMock.add(x, p, a);
+		endpointMock.add(x, p, b);
+		endpointMock.add(x, p, c);
+		endpointMock.add(a, p, d);
+		endpointMock.add(b, p, e);
+		endpointMock.add(c, p, f);
+
+		val policy = new TraversalPolicy();
+		policy.setMaxFrontier(2);
+		sut.setTraversalPolicy(policy);
+
+		val traced = sut.tracePropertyPathFrom(x, 2);
+
+		assertThat( traced.contains(a, p, d), is(true)  );
+		assertThat( traced.contains(b, p, e), is(true)  );
+		assertThat( traced.contains(c, p, f), is(false) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_followsInboundEdges() throws Exception {
+		endpointMock.add(b, p, a);
+		endpointMock.add(c, q, b);
+		endpointMock.add(a, p, d);
+
+		val policy = new TraversalPolicy();
+		policy.setDirection(TraversalPolicy.Direction.IN);
+		sut.setTraversalPolicy(policy);
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(b, p, a);
+		expected.add(c, q, b);
+
+		assertThat( sut.tracePropertyPathFrom(a, 2), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(2) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_followsBothDirectionsInOneQueryPerLevel() throws Exception {
+		endpointMock.add(b, p, a);
+		endpointMock.add(a, p, c);
+		endpointMock.add(c, p, d);
+		endpointMock.add(e, p, c);
+		endpointMock.add(f, p, b);
+
+		val policy = new TraversalPolicy();
+		policy.setDirection(TraversalPolicy.Direction.BOTH);
+		policy.setInDepth(1);
+		sut.setTraversalPolicy(policy);
+
+		// 入る辺は起点の分だけ辿る
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(b, p, a);
+		expected.add(a, p, c);
+		expected.add(c, p, d);
+
+		assertThat( sut.tracePropertyPathFrom(a, 2), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(2) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_cycle() throws Exception {
+		endpointMock.add(a, p, b);
+		endpointMock.add(b, p, a);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a, p, b);
+		expected.add(b, p, a);
+		
+		assertThat( sut.tracePropertyPathFrom(a, 5), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(2) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_sharedNode() throws Exception {
+		endpointMock.add(a, p, b);
+		endpointMock.add(a, q, c);
+		endpointMock.add(b, p, d);
+		endpointMock.add(c, p, d);
+		endpointMock.add(d, p, e);
+		endpointMock.add(e, p, f);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a, p, b);
+		expected.add(a, q, c);
+		expected.add(b, p, d);
+		expected.add(c, p, d);
+		expected.add(d, p, e);
+		
+		assertThat( sut.tracePropertyPathFrom(a, 3), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(3) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_reusesCachedResponses() throws Exception {
+		endpointMock.add(a, p, b);
+		endpointMock.add(b, p, c);
+		
+		sut.setResponseCache( new ResponseCache(folder.getRoot().toPath(), 60 * 1000, Long.MAX_VALUE) );
+		val first = sut.tracePropertyPathFrom(a, 2);
+		queryCount.set(0);
+		sut.setLookupCache( new LookupCache(LookupCache.DEFAULT_MAX_TRIPLES) );
+		
+		assertThat( sut.tracePropertyPathFrom(a, 2), is(modelOf(first)) );
+		assertThat( queryCount.get(), is(0) );
+	}
+
+	private void addNeighbourhood() {
+		endpointMock.add(a, p, b);
+		endpointMock.add(a, q, c);
+		endpointMock.add(b, p, d);
+		endpointMock.add(c, p, d);
+		endpointMock.add(d, p, a);
+		endpointMock.add(d, p, e);
+		endpointMock.add(d, q, endpointMock.createLiteral("d"));
+		endpointMock.add(e, p, f);
+		endpointMock.add(f, p, x);
+	}
+
+	@Test
+	public void tracePropertyPathFrom_neighbourhood() throws Exception {
+		addNeighbourhood();
+		val expected = sut.tracePropertyPathFrom(a, 4);
+		val stepwise = queryCount.getAndSet(0);
+
+		setUp();
+		addNeighbourhood();
+		sut.setHops(3);
+
+		assertThat( sut.tracePropertyPathFrom(a, 4), is(modelOf(expected)) );
+		assertThat( queryCount.get() < stepwise, is(true) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_neighbourhoodStopsAtRequestedDepth() throws Exception {
+		addNeighbourhood();
+		val expected = sut.tracePropertyPathFrom(a, 2);
+
+		val queries = new ArrayList<String>();
+		val recording = new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				queries.add(query);
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+		recording.setHops(3);
+
+		assertThat( recording.tracePropertyPathFrom(a, 2), is(modelOf(expected)) );
+		assertThat( queries.stream().anyMatch( query -> query.contains("?x0 ?p1 ?x1") ), is(true)  );
+		assertThat( queries.stream().anyMatch( query -> query.contains("?x1 ?p2 ?x2") ), is(false) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_neighbourhoodInPages() throws Exception {
+		addNeighbourhood();
+		val expected = sut.tracePropertyPathFrom(a, 4);
+
+		setUp();
+		addNeighbourhood();
+		sut.setHops(3);
+		sut.setPageSize(2);
+
+		assertThat( sut.tracePropertyPathFrom(a, 4), is(modelOf(expected)) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_neighbourhoodFallsBackToSteps() throws Exception {
+		addNeighbourhood();
+		val expected = sut.tracePropertyPathFrom(a, 4);
+
+		val withoutUnion = new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				if ( query.contains("UNION") ) {
+					throw new QueryExceptionHTTP(500, "Internal Server Error");
+				}
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+		withoutUnion.setHops(3);
+
+		assertThat( withoutUnion.tracePropertyPathFrom(a, 4), is(modelOf(expected)) );
+	}
+
+	@Test
+	public void neighbourhoodQuery_chainsHops() throws Exception {
+		val query = Crawler.neighbourhoodQuery( 3, new TraversalPolicy() );
+
+		assertThat( query.contains("?x0 ?p1 ?x1 . FILTER(isURI(?x1)) ?x1 ?p2 ?x2 . FILTER(isURI(?x2)) ?x2 ?p ?o"), is(true) );
+		assertThat( query.split("UNION").length, is(3) );
+	}
+
+	// DBpedia のように，LIMIT の無い結果を limit 行で打ち切るエンドポイント
+	private Crawler createTruncatingCrawler(int limit) {
+		return new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				val parsed = QueryFactory.create( insertPrefixList(query) );
+				if ( !parsed.hasLimit() ) {
+					parsed.setLimit(limit);
+				}
+				return QueryExecutionFactory.create(parsed, endpointMock);
+			}
+		};
+	}
+
+	@Test
+	public void tracePropertyPathFrom_continuesTruncatedResult() throws Exception {
+		val expected = ModelFactory.createDefaultModel();
+		for ( int n = 0; n < 7; n++ ) {
+			expected.add( a, p, createResource("o" + n) );
+		}
+		endpointMock.add(expected);
+
+		val truncating = createTruncatingCrawler(3);
+		assertThat( truncating.tracePropertyPathFrom(a, 1).size(), is(3L) );
+
+		val continuing = createTruncatingCrawler(3);
+		continuing.setResultLimit(3);
+		assertThat( continuing.tracePropertyPathFrom(a, 1), is(modelOf(expected)) );
+	}
+
+	@Test
+	public void tracePropertyPathFrom_neighbourhoodPagesWithinResultLimit() throws Exception {
+		addNeighbourhood();
+		val expected = sut.tracePropertyPathFrom(a, 4);
+
+		val truncating = createTruncatingCrawler(2);
+		truncating.setResultLimit(2);
+		truncating.setHops(3);
+		truncating.setPageSize(100);
+
+		assertThat( truncating.tracePropertyPathFrom(a, 4), is(modelOf(expected)) );
+	}
+
+	@Test
+	public void constructPage_selectsDistinctTemplateVariablesInOrder() throws Exception {
+		val page = sut.constructPage("CONSTRUCT { ?i rdf:type ?c } WHERE { ?i rdf:type ?c }", 10, 20);
+		val parsed = QueryFactory.create(page);
+
+		assertThat( parsed.isConstructType(), is(true) );
+		assertThat( page.contains("SELECT DISTINCT  ?i ?c"), is(true) );
+		assertThat( page.contains("ORDER BY ?i ?c"),          is(true) );
+		assertThat( page.contains("OFFSET  20"),              is(true) );
+		assertThat( page.contains("LIMIT   10"),              is(true) );
+	}
+
+	@Test
+	public void metrics_countQueriesAndCacheHitsPerKind() throws Exception {
+		endpointMock.add(a, p, b);
+		endpointMock.add(b, p, c);
+		
+		sut.exists(a);
+		sut.tracePropertyPathFrom(a, 2);
+		sut.tracePropertyPathFrom(a, 2);
+		
+		val metrics = sut.getMetrics();
+		assertThat( metrics.getQueryCounts().get("ASK"),      is(1L) );
+		assertThat( metrics.getQueryCounts().get("PATH"),     is(2L) );
+		assertThat( metrics.getTriples().get("PATH"),         is(2L) );
+		assertThat( metrics.getLookupCacheHits().get("PATH"), is(2L) );
+		assertThat( metrics.getQueryCounts().get("TYPE"),     is(0L) );
+	}
+
 	@Test
 	public void exists() throws Exception {
 		endpointMock.add(a, p, b);
@@ -87,6 +434,96 @@ public class CrawlerTest {
 		assertThat( sut.exists(x), is(false) );
 	}
 	
+	@Test
+	public void existing_probesManyResourcesInOneQuery() throws Exception {
+		endpointMock.add(a, p, b);
+		endpointMock.add(c, q, d);
+
+		Set<Resource> expected = new HashSet<>( Arrays.asList(a, p, d) );
+
+		assertThat( sut.existing( Arrays.asList(a, p, d, x, y) ), is(expected) );
+		assertThat( queryCount.get(), is(1) );
+	}
+
+	@Test
+	public void exists_remembersMissingResources() throws Exception {
+		assertThat( sut.exists(x), is(false) );
+		assertThat( sut.exists(x), is(false) );
+		assertThat( queryCount.get(), is(1) );
+	}
+
+	@Test
+	public void exists_assumesExistenceWhenBudgetIsExhausted() throws Exception {
+		val client = new EndpointClient(0, 4, 0, 0, 0, 1);
+		client.setMaxRequests(1);
+		sut.setClient(client);
+		sut.exists(a);
+
+		assertThat( sut.exists(x), is(true) );
+
+		// 分からなかった答えは覚えていない
+		client.setMaxRequests(0);
+		assertThat( sut.exists(x), is(false) );
+	}
+
+	@Test
+	public void exists_answersFromLookupCache() throws Exception {
+		endpointMock.add(a, p, b);
+		sut.tracePropertyPathFrom(a, 1);
+		queryCount.set(0);
+
+		assertThat( sut.exists(a), is(true) );
+		assertThat( queryCount.get(), is(0) );
+	}
+	
+	@Test
+	public void inferSuperClassOf_answersKnownHierarchyFromMemory() throws Exception {
+		endpointMock.add(a, RDFS.subClassOf, b);
+		endpointMock.add(b, RDFS.subClassOf, c);
+		endpointMock.add(d, RDFS.subClassOf, c);
+
+		sut.inferSuperClassOf( new HashSet<>( Arrays.asList(a, d) ) );
+		queryCount.set(0);
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(b, RDFS.subClassOf, c);
+
+		assertThat( sut.inferSuperClassOf( Collections.singleton(b) ), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(0) );
+		assertThat( sut.getRdfsClosure().getClasses().reaches(a, c), is(true) );
+	}
+	
+	@Test
+	public void inferSuperClassOf_keepsRestrictionSuperClasses() throws Exception {
+		val restriction = endpointMock.createResource();
+		restriction.addProperty(RDF.type, OWL.Restriction);
+		restriction.addProperty(OWL.onProperty, p);
+		endpointMock.add(a, RDFS.subClassOf, b);
+		endpointMock.add(b, RDFS.subClassOf, restriction);
+
+		sut.inferSuperClassOf( Collections.singleton(a) );
+		val traced = sut.inferSuperClassOf( Collections.singleton(b) );
+
+		assertThat( traced.listStatements(b, RDFS.subClassOf, (RDFNode) null).toList().size(), is(1) );
+		assertThat( traced.listObjectsOfProperty(b, RDFS.subClassOf).next().isAnon(), is(true) );
+	}
+	
+	@Test
+	public void inferSuperClassOf_asksAgainWhenBudgetWasExhausted() throws Exception {
+		endpointMock.add(a, RDFS.subClassOf, b);
+		endpointMock.add(b, RDFS.subClassOf, c);
+
+		val client = new EndpointClient(0, 4, 0, 0, 0, 1);
+		client.setMaxRequests(1);
+		sut.setClient(client);
+		sut.exists(x);
+		assertThat( sut.inferSuperClassOf( Collections.singleton(a) ), is(modelOf( ModelFactory.createDefaultModel() )) );
+
+		client.setMaxRequests(0);
+
+		assertThat( sut.inferSuperClassOf( Collections.singleton(a) ), is(modelOf(endpointMock)) );
+	}
+	
 	@Test
 	public void listPropertyInfo_inferDomains() throws Exception {
 		val model = ModelFactory.createDefaultModel();
@@ -167,6 +604,51 @@ public class CrawlerTest {
 		assertThat( sut.extractTypeIn(model), is(modelOf(expected)) );
 	}
 	
+	@Test
+	public void extractTypeIn_batchesInstances() throws Exception {
+		endpointMock.add(x, RDF.type, c);
+		endpointMock.add(y, RDF.type, d);
+		
+		val model = ModelFactory.createDefaultModel();
+		model.add(x, p, y);
+		model.add(y, p, z);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(x, RDF.type, c);
+		expected.add(y, RDF.type, d);
+		
+		sut.setBatchSize(2);
+		assertThat( sut.extractTypeIn(model), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(2) );
+	}
+	
+	@Test
+	public void extractTypeIn_splitsRejectedBatch() throws Exception {
+		endpointMock.add(x, RDF.type, c);
+		endpointMock.add(y, RDF.type, d);
+		
+		val model = ModelFactory.createDefaultModel();
+		model.add(x, p, y);
+		model.add(y, p, z);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(x, RDF.type, c);
+		expected.add(y, RDF.type, d);
+		
+		val rejecting = new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				if ( query.split(NAME_SPACE).length > 2 ) {
+					throw new QueryExceptionHTTP(414, "Request-URI Too Long");
+				}
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+
+		assertThat( rejecting.extractTypeIn(model), is(modelOf(expected)) );
+	}
+	
 	@Test
 	public void inferSuperPropertyIn_byProperty() throws Exception {
 		endpointMock.add(p, RDFS.subPropertyOf, q);
@@ -249,6 +731,153 @@ public class CrawlerTest {
 		assertThat( sut.inferSuperClassIn(model), is(modelOf(expected)) );
 	}
 
+	@Test
+	public void inferSuperClassIn_cycle() throws Exception {
+		endpointMock.add(c, RDFS.subClassOf, d);
+		endpointMock.add(d, RDFS.subClassOf, c);
+		
+		val model = ModelFactory.createDefaultModel();
+		model.add(i, RDF.type, c);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(c, RDFS.subClassOf, d);
+		expected.add(d, RDFS.subClassOf, c);
+		
+		assertThat( sut.inferSuperClassIn(model), is(modelOf(expected)) );
+	}
+
+	@Test
+	public void inferSuperClassIn_fetchesClosureAtOnce() throws Exception {
+		endpointMock.add(c, RDFS.subClassOf, d);
+		endpointMock.add(d, RDFS.subClassOf, e);
+		endpointMock.add(e, RDFS.subClassOf, f);
+		
+		val model = ModelFactory.createDefaultModel();
+		model.add(i, RDF.type, c);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(c, RDFS.subClassOf, d);
+		expected.add(d, RDFS.subClassOf, e);
+		expected.add(e, RDFS.subClassOf, f);
+		
+		assertThat( sut.inferSuperClassIn(model), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(1) );
+	}
+	
+	@Test
+	public void inferSuperClassIn_reusesKnownAncestors() throws Exception {
+		endpointMock.add(c, RDFS.subClassOf, d);
+		endpointMock.add(d, RDFS.subClassOf, e);
+		
+		val model = ModelFactory.createDefaultModel();
+		model.add(i, RDF.type, c);
+		sut.inferSuperClassIn(model);
+		queryCount.set(0);
+		
+		val sibling = ModelFactory.createDefaultModel();
+		sibling.add(x, RDF.type, d);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(d, RDFS.subClassOf, e);
+		
+		assertThat( sut.inferSuperClassIn(sibling), is(modelOf(expected)) );
+		assertThat( queryCount.get(), is(0) );
+	}
+	
+	@Test
+	public void extractTypeIn_reusesKnownTypes() throws Exception {
+		endpointMock.add(x, RDF.type, c);
+		
+		val model = ModelFactory.createDefaultModel();
+		model.add(x, p, y);
+		
+		val lookupCache = new LookupCache(LookupCache.DEFAULT_MAX_TRIPLES);
+		sut.setLookupCache(lookupCache);
+		val first = sut.extractTypeIn(model);
+		queryCount.set(0);
+		
+		assertThat( sut.extractTypeIn(model), is(modelOf(first)) );
+		assertThat( queryCount.get(), is(0) );
+		assertThat( lookupCache.hitRate(QueryKind.TYPE), is(0.5) );
+	}
+	
+	@Test
+	public void extractTypeIn_queriesBatchesConcurrently() throws Exception {
+		val model = ModelFactory.createDefaultModel();
+		val expected = ModelFactory.createDefaultModel();
+		for ( int n = 0; n < 8; n++ ) {
+			val instance = createResource("i" + n);
+			model.add(instance, p, y);
+			endpointMock.add(instance, RDF.type, c);
+			expected.add(instance, RDF.type, c);
+		}
+		
+		// 最初の 4 つは 4 つ揃うまで返らないので，並行に動いていれば必ず 4 つ同時に投げている
+		val inFlight    = new AtomicInteger();
+		val maxInFlight = new AtomicInteger();
+		val allInFlight = new CountDownLatch(4);
+		val slow = new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				maxInFlight.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+				allInFlight.countDown();
+				try {
+					allInFlight.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				inFlight.decrementAndGet();
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+		slow.setBatchSize(1);
+		slow.setParallelism(4);
+		
+		assertThat( slow.extractTypeOf( slow.listInstanceIn(model) ), is(modelOf(expected)) );
+		assertThat( allInFlight.getCount(), is(0L) );
+		assertThat( maxInFlight.get(),      is(4)  );
+	}
+	
+	@Test
+	public void inferSuperClassIn_withoutPropertyPaths() throws Exception {
+		endpointMock.add(c, RDFS.subClassOf, d);
+		endpointMock.add(d, RDFS.subClassOf, e);
+		
+		val model = ModelFactory.createDefaultModel();
+		model.add(i, RDF.type, c);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(c, RDFS.subClassOf, d);
+		expected.add(d, RDFS.subClassOf, e);
+		
+		val withoutPaths = new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				if ( query.contains(">*") ) {
+					throw new QueryExceptionHTTP(400, "Bad Request");
+				}
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+
+		assertThat( withoutPaths.inferSuperClassIn(model), is(modelOf(expected)) );
+	}
+	
+	@Test
+	public void inferSubClassOf() throws Exception {
+		endpointMock.add(d, RDFS.subClassOf, c);
+		endpointMock.add(e, RDFS.subClassOf, d);
+		endpointMock.add(c, RDFS.subClassOf, f);
+		
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(d, RDFS.subClassOf, c);
+		expected.add(e, RDFS.subClassOf, d);
+		
+		assertThat( sut.inferSubClassOf(c), is(modelOf(expected)) );
+	}
+
 	@Test
 	public void inferSuperClassIn_byRdfsDomain() throws Exception {
 		endpointMock.add(c, RDFS.subClassOf, d);
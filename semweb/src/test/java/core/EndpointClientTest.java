@@ -0,0 +1,112 @@
+package core;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.val;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+
+public class EndpointClientTest {
+
+	private AtomicInteger calls;
+
+	@Before
+	public void setUp() {
+		calls = new AtomicInteger();
+	}
+
+	// failures 回 code で失敗してから成功する
+	private String failThenSucceed(int failures, int code) {
+		if ( calls.incrementAndGet() <= failures ) {
+			throw new QueryExceptionHTTP(code, "failure " + calls.get());
+		}
+
+		return "ok";
+	}
+
+	@Test
+	public void execute_retriesThrottledRequest() throws Exception {
+		val sut = new EndpointClient(0, 4, 0, 0, 3, 1);
+
+		assertThat( sut.execute( () -> failThenSucceed(2, 503) ), is("ok") );
+		assertThat( calls.get(), is(3) );
+	}
+
+	@Test
+	public void execute_doesNotRetryBadRequest() throws Exception {
+		val sut = new EndpointClient(0, 4, 0, 0, 3, 1);
+
+		try {
+			sut.execute( () -> failThenSucceed(1, 400) );
+			fail();
+		} catch (QueryExceptionHTTP e) {
+			assertThat( e.getResponseCode(), is(400) );
+		}
+		assertThat( calls.get(), is(1) );
+	}
+
+	@Test
+	public void execute_givesUpAfterMaxRetries() throws Exception {
+		val sut = new EndpointClient(0, 4, 0, 0, 2, 1);
+
+		try {
+			sut.execute( () -> failThenSucceed(10, 429) );
+			fail();
+		} catch (QueryExceptionHTTP e) {
+			assertThat( e.getResponseCode(), is(429) );
+		}
+		assertThat( calls.get(), is(3) );
+	}
+
+	@Test
+	public void execute_halvesConcurrencyOnThrottlingAndGrowsBack() throws Exception {
+		val sut = new EndpointClient(0, 8, 0, 0, 1, 1);
+
+		sut.execute( () -> failThenSucceed(1, 429) );
+		assertThat( sut.getConcurrencyLimit(), is(4) );
+
+		for ( int i = 0; i < 100; i++ ) {
+			sut.execute( () -> "ok" );
+		}
+		assertThat( sut.getConcurrencyLimit(), is(8) );
+	}
+
+	@Test
+	public void execute_treatsSlowResponseAsCongestion() throws Exception {
+		val sut = new EndpointClient(0, 8, 1, 0, 0, 1);
+
+		sut.execute( () -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "ok";
+		});
+
+		assertThat( sut.getConcurrencyLimit(), is(4) );
+	}
+
+	@Test
+	public void execute_stopsWhenBudgetIsExhausted() throws Exception {
+		val sut = new EndpointClient(0, 4, 0, 0, 0, 1);
+		sut.setMaxRequests(2);
+
+		sut.execute( () -> failThenSucceed(0, 0) );
+		sut.execute( () -> failThenSucceed(0, 0) );
+		try {
+			sut.execute( () -> failThenSucceed(0, 0) );
+			fail();
+		} catch (BudgetExhaustedException e) {
+			assertThat( sut.isExhausted(), is(true) );
+		}
+		assertThat( calls.get(), is(2) );
+	}
+}
@@ -0,0 +1,115 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import lombok.val;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class FederatedCrawlerTest {
+
+	private static final String A = "http://a.example.org/";
+	private static final String B = "http://b.example.org/";
+
+	private static final Resource a1 = ResourceFactory.createResource(A + "1");
+	private static final Resource a2 = ResourceFactory.createResource(A + "2");
+	private static final Resource a3 = ResourceFactory.createResource(A + "3");
+	private static final Resource b1 = ResourceFactory.createResource(B + "1");
+	private static final Resource b2 = ResourceFactory.createResource(B + "2");
+
+	private Model endpointA;
+	private Model endpointB;
+	private Crawler crawlerB;
+	private FederatedCrawler sut;
+
+	@Before
+	public void setUp() {
+		endpointA = ModelFactory.createDefaultModel();
+		endpointB = ModelFactory.createDefaultModel();
+
+		crawlerB = new Crawler("mock of endpoint B") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				return QueryExecutionFactory.create( insertPrefixList(query), endpointB );
+			}
+		};
+		sut = new FederatedCrawler("mock of endpoint A") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				return QueryExecutionFactory.create( insertPrefixList(query), endpointA );
+			}
+		};
+		sut.addRoute(B, crawlerB);
+
+		// a1 -> b1 -> b2 -> a2 -> a3 と 2 つのエンドポイントをまたぐ
+		endpointA.add(a1, RDFS.subClassOf, b1);
+		endpointB.add(b1, RDFS.subClassOf, b2);
+		endpointB.add(b2, RDFS.subClassOf, a2);
+		endpointA.add(a2, RDFS.subClassOf, a3);
+	}
+
+	@Test
+	public void crawlerFor_usesLongestMatchingNamespace() throws Exception {
+		val crawlerC = new Crawler("mock of endpoint C");
+		sut.addRoute(B + "c/", crawlerC);
+
+		assertThat( sut.crawlerFor(a1),                                            is((Crawler) sut) );
+		assertThat( sut.crawlerFor(b1),                                            is(crawlerB)      );
+		assertThat( sut.crawlerFor( ResourceFactory.createResource(B + "c/1") ),   is(crawlerC)      );
+		assertThat( sut.listCrawlers(), is( Arrays.asList(sut, crawlerB, crawlerC) ) );
+	}
+
+	@Test
+	public void inferSuperClassOf_followsPathAcrossEndpoints() throws Exception {
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(endpointA);
+		expected.add(endpointB);
+
+		assertThat( sut.inferSuperClassOf( Collections.singleton(a1) ), is(modelOf(expected)) );
+		assertThat( crawlerB.getLookupCache().getIfPresent(QueryKind.SUPER_CLASS, b1) != null, is(true) );
+	}
+
+	@Test
+	public void extractTypeOf_asksOwnerOfEachInstance() throws Exception {
+		endpointA.add(a1, RDF.type, a3);
+		endpointB.add(b1, RDF.type, a3);
+		// B の知らない a2 の型は A からは引けない
+		endpointB.add(a2, RDF.type, b2);
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a1, RDF.type, a3);
+		expected.add(b1, RDF.type, a3);
+
+		assertThat( sut.extractTypeOf( new HashSet<>( Arrays.asList(a1, a2, b1) ) ), is(modelOf(expected)) );
+	}
+
+	@Test
+	public void inferSuperClassOf_skipsEndpointOutOfBudget() throws Exception {
+		val client = new EndpointClient(0, 4, 0, 0, 0, 1);
+		client.setMaxRequests(1);
+		crawlerB.setClient(client);
+		crawlerB.extractTypeOf( Collections.singleton(b1) );
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a1, RDFS.subClassOf, b1);
+
+		assertThat( sut.inferSuperClassOf( Collections.singleton(a1) ), is(modelOf(expected)) );
+		assertThat( client.isExhausted(), is(true) );
+	}
+}
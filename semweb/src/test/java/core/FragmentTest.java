@@ -0,0 +1,293 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.val;
+
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class FragmentTest {
+
+	private static final String NAME_SPACE = "http://www.example.org/";
+
+	private static final Resource a = createResource("a");
+	private static final Resource b = createResource("b");
+	private static final Resource c = createResource("c");
+	private static final Resource d = createResource("d");
+	
+	private static final Resource C = createResource("C");
+	private static final Resource D = createResource("D");
+	private static final Resource E = createResource("E");
+
+	private static final Property p = createProperty("p");
+	private static final Property q = createProperty("q");
+	private static final Property r = createProperty("r");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Model endpointMock;
+	private AtomicInteger queryCount;
+
+	@Before
+	public void setUp() {
+		endpointMock = ModelFactory.createDefaultModel();
+		endpointMock.add(a, p, b);
+		endpointMock.add(b, q, c);
+		endpointMock.add(c, p, d);
+		endpointMock.add(b, RDF.type, C);
+		endpointMock.add(d, RDF.type, D);
+		endpointMock.add(C, RDFS.subClassOf, E);
+		endpointMock.add(D, RDFS.subClassOf, E);
+		endpointMock.add(q, RDFS.subPropertyOf, r);
+		endpointMock.add(r, RDFS.domain, C);
+
+		queryCount = new AtomicInteger();
+	}
+
+	private static Resource createResource(String str) {
+		return ResourceFactory.createResource( NAME_SPACE + str );
+	}
+	
+	private static Property createProperty(String str) {
+		return ResourceFactory.createProperty( NAME_SPACE + str );
+	}
+
+	private Fragment createFragment() {
+		return createFragment(Integer.MAX_VALUE);
+	}
+
+	private Fragment createFragment(int failAfter) {
+		return Fragment.from( createCrawler(failAfter) );
+	}
+
+	// failAfter 回目より後の問い合わせで落ちる
+	private Crawler createCrawler(int failAfter) {
+		return new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				if ( queryCount.incrementAndGet() > failAfter ) {
+					throw new IllegalStateException("endpoint is down");
+				}
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+	}
+
+	@Test
+	public void expand_growsToSameModelAsFreshCrawl() throws Exception {
+		val fresh = createFragment();
+		fresh.expand(a.getURI(), 3);
+
+		val sut = createFragment();
+		for ( int depth = 1; depth <= 3; depth++ ) {
+			sut.expand(a.getURI(), depth);
+		}
+
+		assertThat( sut.getModel(), is(modelOf(fresh.getModel())) );
+	}
+
+	@Test
+	public void expand_streamsSameTriplesAsInMemoryModel() throws Exception {
+		val inMemory = createFragment();
+		inMemory.expand(a.getURI(), 3);
+
+		val path = folder.getRoot().toPath().resolve("a.nt");
+		try ( StreamingWriter stream = new StreamingWriter(path, 0) ) {
+			val sut = createFragment();
+			sut.setStream(stream);
+			sut.expand(a.getURI(), 3);
+
+			assertThat( sut.getModel().isEmpty(), is(true) );
+		}
+
+		val streamed = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(streamed, path.toString());
+		assertThat( streamed, is(modelOf(inMemory.getModel())) );
+	}
+
+	@Test
+	public void expand_neighbourhoodQueriesLessForSameModel() throws Exception {
+		val stepwise = createFragment();
+		stepwise.expand(a.getURI(), 3);
+		val steps = queryCount.getAndSet(0);
+
+		val crawler = createCrawler(Integer.MAX_VALUE);
+		crawler.setHops(3);
+		val sut = Fragment.from(crawler);
+		sut.expand(a.getURI(), 3);
+
+		assertThat( sut.getModel(), is(modelOf(stepwise.getModel())) );
+		assertThat( queryCount.get() < steps, is(true) );
+	}
+
+	@Test
+	public void expand_doesNotQueryAgainForReachedDepth() throws Exception {
+		val sut = createFragment();
+		sut.expand(a.getURI(), 2);
+		queryCount.set(0);
+
+		sut.expand(a.getURI(), 2);
+		sut.expand(a.getURI(), 1);
+
+		assertThat( queryCount.get(), is(0) );
+	}
+
+	@Test
+	public void restore_continuesToSameModelAsFreshCrawl() throws Exception {
+		val fresh = createFragment();
+		fresh.expand(a.getURI(), 3);
+
+		val dir = folder.getRoot().toPath().resolve("checkpoint");
+		try ( Checkpoint checkpoint = Checkpoint.create(dir, 0) ) {
+			val first = createFragment();
+			first.setCheckpoint(checkpoint);
+			first.expand(a.getURI(), 1);
+		}
+
+		queryCount.set(0);
+		try ( Checkpoint checkpoint = Checkpoint.open(dir, 0) ) {
+			val sut = createFragment();
+			sut.setCheckpoint(checkpoint);
+			sut.restore( checkpoint.restore().get() );
+			sut.expand(a.getURI(), 3);
+
+			assertThat( sut.getModel(), is(modelOf(fresh.getModel())) );
+		}
+	}
+
+	@Test
+	public void restore_discardsWorkAfterLastCommit() throws Exception {
+		val fresh = createFragment();
+		fresh.expand(a.getURI(), 3);
+		val total = queryCount.getAndSet(0);
+
+		val dir = folder.getRoot().toPath().resolve("checkpoint");
+		try ( Checkpoint checkpoint = Checkpoint.create(dir, 0) ) {
+			val crashed = createFragment(total / 2);
+			crashed.setCheckpoint(checkpoint);
+			crashed.expand(a.getURI(), 3);
+		} catch (IllegalStateException e) {
+			// 途中で止まった
+		}
+
+		queryCount.set(0);
+		try ( Checkpoint checkpoint = Checkpoint.open(dir, 0) ) {
+			val sut = createFragment();
+			sut.setCheckpoint(checkpoint);
+			sut.restore( checkpoint.restore().get() );
+			sut.expand(a.getURI(), 3);
+
+			assertThat( sut.getModel(), is(modelOf(fresh.getModel())) );
+			assertThat( queryCount.get() < total, is(true) );
+		}
+	}
+
+	@Test
+	public void checkpoint_writesTriplesOnlyOnce() throws Exception {
+		val dir = folder.getRoot().toPath().resolve("checkpoint");
+		try ( Checkpoint checkpoint = Checkpoint.create(dir, 0) ) {
+			val sut = createFragment();
+			sut.setCheckpoint(checkpoint);
+			sut.expand(a.getURI(), 2);
+		}
+
+		// 段階ごとの未処理トリプルは triples.nt の範囲として持つ
+		try ( val files = Files.list(dir) ) {
+			assertThat( files.filter( f -> f.toString().endsWith(".nt") ).count(), is(1L) );
+		}
+	}
+
+	@Test
+	public void restore_discardsPhaseWorkAfterLastTimedCommit() throws Exception {
+		val fresh = createFragment();
+		fresh.expand(a.getURI(), 2);
+
+		// 探索の問い合わせを interval より遅くして探索の後の commit だけを確定させ，
+		// その後の段階の結果は commit されないまま型の段階で落ちる
+		val interval = 1000;
+		val dir = folder.getRoot().toPath().resolve("checkpoint");
+		try ( Checkpoint checkpoint = Checkpoint.create(dir, interval) ) {
+			val crashed = Fragment.from( new Crawler("mock of endpoint") {
+				@Override
+				public QueryExecution createQuery(String query) {
+					if ( query.contains("?i rdf:type ?c") ) {
+						throw new IllegalStateException("endpoint is down");
+					}
+					if ( query.contains("?s ?p ?o . FILTER(isURI(?o))") ) {
+						Uninterruptibles.sleepUninterruptibly( interval + 200, TimeUnit.MILLISECONDS );
+					}
+					return QueryExecutionFactory.create(
+							insertPrefixList(query), endpointMock);
+				}
+			});
+			crashed.setCheckpoint(checkpoint);
+			crashed.expand(a.getURI(), 2);
+		} catch (IllegalStateException e) {
+			// 途中で止まった
+		}
+
+		try ( Checkpoint checkpoint = Checkpoint.open(dir, interval) ) {
+			val sut = createFragment();
+			sut.setCheckpoint(checkpoint);
+			sut.restore( checkpoint.restore().get() );
+			sut.expand(a.getURI(), 2);
+
+			assertThat( sut.getModel(), is(modelOf(fresh.getModel())) );
+		}
+	}
+
+	@Test
+	public void expand_pipelinedGrowsToSameModelAsStaged() throws Exception {
+		val staged = createFragment();
+		staged.expand(a.getURI(), 3);
+
+		val sut = createFragment();
+		sut.setPipelined(true);
+		sut.expand(a.getURI(), 1);
+		sut.expand(a.getURI(), 3);
+
+		assertThat( sut.getModel(), is(modelOf(staged.getModel())) );
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void expand_pipelinedPropagatesFailure() throws Exception {
+		val sut = createFragment(3);
+		sut.setPipelined(true);
+		sut.expand(a.getURI(), 3);
+	}
+
+	@Test
+	public void expand_compactStoreHoldsSameModel() throws Exception {
+		val inMemory = createFragment();
+		inMemory.expand(a.getURI(), 3);
+
+		val sut = new Fragment( ModelFactory.createModelForGraph(new CompactGraph()),
+				createCrawler(Integer.MAX_VALUE) );
+		sut.expand(a.getURI(), 3);
+
+		assertThat( sut.getModel(), is(modelOf(inMemory.getModel())) );
+	}
+}
@@ -0,0 +1,153 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import lombok.val;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class HierarchyTest {
+
+	private static final Resource a = createResource("a");
+	private static final Resource b = createResource("b");
+	private static final Resource c = createResource("c");
+	private static final Resource d = createResource("d");
+	private static final Resource e = createResource("e");
+
+	private static Resource createResource(String str) {
+		return ResourceFactory.createResource( "http://www.example.org/" + str );
+	}
+
+	// a -> b -> d, a -> c -> d, d <-> e
+	private static Model diamondWithCycle() {
+		val model = ModelFactory.createDefaultModel();
+		model.add(a, RDFS.subClassOf, b);
+		model.add(a, RDFS.subClassOf, c);
+		model.add(b, RDFS.subClassOf, d);
+		model.add(c, RDFS.subClassOf, d);
+		model.add(d, RDFS.subClassOf, e);
+		model.add(e, RDFS.subClassOf, d);
+
+		return model;
+	}
+
+	@Test
+	public void reaches_followsAllParentsAndCycles() throws Exception {
+		val sut = new Hierarchy(RDFS.subClassOf);
+		sut.add( diamondWithCycle(), Collections.emptySet() );
+
+		assertThat( sut.reaches(a, e), is(true)  );
+		assertThat( sut.reaches(e, d), is(true)  );
+		assertThat( sut.reaches(b, c), is(false) );
+		assertThat( sut.reaches(d, a), is(false) );
+		assertThat( sut.ancestorsOf(c), is( (Set<Resource>) new HashSet<>( Arrays.asList(c, d, e) ) ) );
+	}
+
+	@Test
+	public void reaches_seesEdgesAddedLater() throws Exception {
+		val sut = new Hierarchy(RDFS.subClassOf);
+		sut.add( diamondWithCycle(), Collections.emptySet() );
+		assertThat( sut.reaches(b, c), is(false) );
+
+		val more = ModelFactory.createDefaultModel();
+		more.add(b, RDFS.subClassOf, c);
+		sut.add( more, Collections.emptySet() );
+
+		assertThat( sut.reaches(b, c), is(true) );
+		assertThat( sut.reaches(a, c), is(true) );
+	}
+
+	@Test
+	public void closureOf_answersOnlyWhenEdgesAreComplete() throws Exception {
+		val sut = new Hierarchy(RDFS.subClassOf);
+		sut.add( diamondWithCycle(), Arrays.asList(b, d) );
+
+		assertThat( sut.closureOf( Collections.singleton(b) ), is(nullValue()) );
+
+		sut.add( ModelFactory.createDefaultModel(), Collections.singleton(e) );
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(b, RDFS.subClassOf, d);
+		expected.add(d, RDFS.subClassOf, e);
+		expected.add(e, RDFS.subClassOf, d);
+
+		assertThat( sut.closureOf( Collections.singleton(b) ), is(modelOf(expected)) );
+		assertThat( sut.closureOf( Collections.singleton(a) ), is(nullValue()) );
+	}
+
+	@Test
+	public void ancestorsOf_labelsNodesAddedOnlyAsComplete() throws Exception {
+		val sut = new Hierarchy(RDFS.subClassOf);
+		val model = ModelFactory.createDefaultModel();
+		model.add(a, RDFS.subClassOf, b);
+		sut.add( model, Collections.emptySet() );
+		assertThat( sut.ancestorsOf(a), is( (Set<Resource>) new HashSet<>( Arrays.asList(a, b) ) ) );
+
+		sut.add( ModelFactory.createDefaultModel(), Collections.singleton(c) );
+
+		assertThat( sut.ancestorsOf(c), is( Collections.singleton(c) ) );
+		assertThat( sut.reaches(c, a),  is(false) );
+	}
+
+	@Test
+	public void reaches_agreesWithSearchOnLargeHierarchy() throws Exception {
+		val n = 100000;
+		val random = new Random(1);
+		val model = ModelFactory.createDefaultModel();
+		val parents = new int[n][];
+		for ( int i = 1; i < n; i++ ) {
+			// ほとんどは木で，ときどき 2 つ目の親を持つ
+			parents[i] = random.nextInt(10) == 0
+					? new int[] { random.nextInt(i), random.nextInt(i) }
+					: new int[] { random.nextInt(i) };
+			for ( final int p : parents[i] ) {
+				model.add( createResource("c" + i), RDFS.subClassOf, createResource("c" + p) );
+			}
+		}
+
+		val sut = new Hierarchy(RDFS.subClassOf);
+		sut.add( model, Collections.emptySet() );
+
+		for ( int k = 0; k < 200; k++ ) {
+			int from = random.nextInt(n);
+			int to   = random.nextInt(n);
+			assertThat( sut.reaches( createResource("c" + from), createResource("c" + to) ),
+					is( search(parents, from, to) ) );
+		}
+	}
+
+	private static boolean search(int[][] parents, int from, int to) {
+		val visited = new HashSet<Integer>();
+		val queue = new ArrayDeque<Integer>();
+		queue.add(from);
+		while ( !queue.isEmpty() ) {
+			int node = queue.poll();
+			if ( node == to ) {
+				return true;
+			}
+			if ( visited.add(node) && parents[node] != null ) {
+				for ( final int p : parents[node] ) {
+					queue.add(p);
+				}
+			}
+		}
+
+		return false;
+	}
+}
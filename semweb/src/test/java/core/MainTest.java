@@ -0,0 +1,152 @@
+package core;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.val;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class MainTest {
+
+	private static final String NAME_SPACE = "http://www.example.org/";
+
+	private static final Resource a = createResource("a");
+	private static final Resource b = createResource("b");
+	private static final Resource x = createResource("x");
+	private static final Resource C = createResource("C");
+	private static final Resource D = createResource("D");
+	private static final Property p = ResourceFactory.createProperty( NAME_SPACE + "p" );
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Model endpointMock;
+	private AtomicInteger queryCount;
+	private BaseConfiguration config;
+
+	@Before
+	public void setUp() {
+		endpointMock = ModelFactory.createDefaultModel();
+		endpointMock.add(a, p, x);
+		endpointMock.add(b, p, x);
+		endpointMock.add(x, RDF.type, C);
+		endpointMock.add(C, RDFS.subClassOf, D);
+
+		queryCount = new AtomicInteger();
+
+		config = new BaseConfiguration();
+		config.setProperty( "mindepth", 1 );
+		config.setProperty( "maxdepth", 1 );
+		config.setProperty( "outdir", folder.getRoot().getPath() + "/" );
+		config.setProperty( "seedparallelism", 2 );
+	}
+
+	private static Resource createResource(String str) {
+		return ResourceFactory.createResource( NAME_SPACE + str );
+	}
+
+	private Crawler createCrawler() {
+		return new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				queryCount.incrementAndGet();
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+	}
+
+	@Test
+	public void extractFromSeeds_writesOneFilePerSeed() throws Exception {
+		Main.extractFromSeeds( config, createCrawler(), Arrays.asList(a.getURI(), b.getURI()) );
+
+		assertThat( Files.exists( folder.getRoot().toPath().resolve("a_dep1.ttl") ), is(true) );
+		assertThat( Files.exists( folder.getRoot().toPath().resolve("b_dep1.ttl") ), is(true) );
+	}
+
+	@Test
+	public void extractFromSeeds_keepsSeedsWithSameLastSegmentApart() throws Exception {
+		val other = ResourceFactory.createResource( NAME_SPACE + "other/a" );
+		endpointMock.add(other, p, b);
+		config.setProperty( "checkpointdir", folder.newFolder("checkpoint").getPath() );
+
+		Main.extractFromSeeds( config, createCrawler(), Arrays.asList(a.getURI(), other.getURI()) );
+
+		val names = Main.namesOf( Arrays.asList(a.getURI(), other.getURI()) );
+		assertThat( names.get( a.getURI() ).equals( names.get( other.getURI() ) ), is(false) );
+		for ( final String name : names.values() ) {
+			assertThat( Files.exists( folder.getRoot().toPath().resolve(name + "_dep1.ttl") ), is(true) );
+			assertThat( Files.isDirectory( folder.getRoot().toPath().resolve("checkpoint/" + name) ), is(true) );
+		}
+	}
+
+	@Test
+	public void extractFromSeeds_checksSeedsOneByOneWhenBulkCheckFails() throws Exception {
+		val first = new AtomicBoolean(true);
+		val crawler = new Crawler("mock of endpoint") {
+			@Override
+			public QueryExecution createQuery(String query) {
+				if ( first.getAndSet(false) ) {
+					throw new IllegalStateException("endpoint is down");
+				}
+				return QueryExecutionFactory.create(
+						insertPrefixList(query), endpointMock);
+			}
+		};
+
+		Main.extractFromSeeds( config, crawler, Arrays.asList(a.getURI(), b.getURI()) );
+
+		assertThat( Files.exists( folder.getRoot().toPath().resolve("a_dep1.ttl") ), is(true) );
+		assertThat( Files.exists( folder.getRoot().toPath().resolve("b_dep1.ttl") ), is(true) );
+	}
+
+	@Test
+	public void extractFromSeeds_keepsSnapshotsOfShallowerDepthsOnResume() throws Exception {
+		endpointMock.add(x, p, b);
+		config.setProperty( "checkpointdir", folder.newFolder("checkpoint").getPath() );
+		config.setProperty( "maxdepth", 2 );
+		Main.extractFromSeeds( config, createCrawler(), Arrays.asList(a.getURI()) );
+		val snapshot = folder.getRoot().toPath().resolve("a_dep1.ttl");
+		val written  = Files.readAllBytes(snapshot);
+
+		config.setProperty( "resume", true );
+		config.setProperty( "maxdepth", 3 );
+		Main.extractFromSeeds( config, createCrawler(), Arrays.asList(a.getURI()) );
+
+		assertThat( Arrays.equals( Files.readAllBytes(snapshot), written ), is(true) );
+		assertThat( Files.exists( folder.getRoot().toPath().resolve("a_dep3.ttl") ), is(true) );
+	}
+
+	@Test
+	public void extractFromSeeds_sharesLookupsBetweenSeeds() throws Exception {
+		Main.extractFromSeeds( config, createCrawler(), Arrays.asList(a.getURI()) );
+		val single = queryCount.getAndSet(0);
+
+		config.setProperty( "seedparallelism", 1 );
+		val crawler = createCrawler();
+		Main.extractFromSeeds( config, crawler, Arrays.asList(a.getURI(), b.getURI()) );
+
+		assertThat( queryCount.get() < 2 * single, is(true) );
+		assertThat( crawler.getMetrics().getLookupCacheHits().get("SUPER_CLASS") > 0, is(true) );
+	}
+}
@@ -0,0 +1,54 @@
+package core;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import lombok.val;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void getLatencyHistograms_bucketsByPowerOfTwoMillis() throws Exception {
+		val sut = new Metrics();
+		sut.recordQuery( QueryKind.TYPE, TimeUnit.MICROSECONDS.toNanos(500), 0, 0 );
+		sut.recordQuery( QueryKind.TYPE, TimeUnit.MILLISECONDS.toNanos(3),   0, 0 );
+		sut.recordQuery( QueryKind.TYPE, TimeUnit.MILLISECONDS.toNanos(3),   0, 0 );
+
+		val histogram = sut.getLatencyHistograms().get("TYPE");
+		assertThat( histogram[0], is(1L) );
+		assertThat( histogram[2], is(2L) );
+		assertThat( sut.getMeanLatencyMillis().get("TYPE") > 2.0, is(true) );
+	}
+
+	@Test
+	public void report_listsUsedKindsAndPhases() throws Exception {
+		val sut = new Metrics();
+		sut.recordQuery( QueryKind.SUPER_CLASS, 1000, 3, 120 );
+		sut.recordPhase( "super class", TimeUnit.MILLISECONDS.toNanos(42) );
+
+		val report = sut.report();
+		assertThat( report, containsString("SUPER_CLASS") );
+		assertThat( report, containsString("super class") );
+		assertThat( report.contains("DOMAIN"), is(false) );
+	}
+
+	@Test
+	public void register_exposesMetricsThroughJmx() throws Exception {
+		val sut = new Metrics();
+		sut.recordQuery( QueryKind.PATH, 1000, 1, 10 );
+		sut.register("http://www.example.org/sparql");
+
+		val name = new ObjectName( "core:type=Metrics,name=" + ObjectName.quote("http://www.example.org/sparql") );
+		val server = ManagementFactory.getPlatformMBeanServer();
+		assertThat( server.isRegistered(name), is(true) );
+		server.unregisterMBean(name);
+	}
+}
@@ -0,0 +1,58 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import lombok.val;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+public class ModelsTest {
+
+	private static final Resource a = ResourceFactory.createResource("http://www.example.org/a");
+	private static final Resource b = ResourceFactory.createResource("http://www.example.org/b");
+	private static final Resource c = ResourceFactory.createResource("http://www.example.org/c");
+	private static final Property p = ResourceFactory.createProperty("http://www.example.org/p");
+
+	@Test
+	public void union_showsAllTriplesOnce() throws Exception {
+		val first = ModelFactory.createDefaultModel();
+		first.add(a, p, b);
+		val second = ModelFactory.createDefaultModel();
+		second.add(a, p, b);
+		second.add(b, p, c);
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a, p, b);
+		expected.add(b, p, c);
+
+		val sut = Models.union( Arrays.asList(first, second) );
+
+		assertThat( sut, is(modelOf(expected)) );
+		assertThat( sut.size(), is(2L) );
+		assertThat( Models.union( Collections.emptyList() ).isEmpty(), is(true) );
+	}
+
+	@Test
+	public void union_doesNotWriteIntoSharedModels() throws Exception {
+		val shared = ModelFactory.createDefaultModel();
+		shared.add(a, p, b);
+
+		val sut = Models.union( Collections.singletonList(shared) );
+		sut.add(b, p, c);
+		sut.remove(a, p, b);
+
+		assertThat( shared.size(),            is(1L)   );
+		assertThat( shared.contains(a, p, b), is(true) );
+		assertThat( sut.contains(b, p, c),    is(true) );
+	}
+}
@@ -0,0 +1,166 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import lombok.val;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class NegotiatingQueryEngineTest {
+
+	private static final Resource a = ResourceFactory.createResource("http://www.example.org/a");
+	private static final Resource b = ResourceFactory.createResource("http://www.example.org/b");
+	private static final Resource c = ResourceFactory.createResource("http://www.example.org/c");
+	private static final Property p = ResourceFactory.createProperty("http://www.example.org/p");
+
+	private HttpServer server;
+	private String endpoint;
+
+	// 次の応答．null なら 503 を返す
+	private volatile String contentType;
+	private volatile byte[] body;
+	private volatile boolean gzip;
+
+	// 最後に受けたリクエスト
+	private volatile String method;
+	private volatile String accept;
+	private volatile String acceptEncoding;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create( new InetSocketAddress("localhost", 0), 0 );
+		server.createContext( "/sparql", this::handle );
+		server.start();
+		endpoint = "http://localhost:" + server.getAddress().getPort() + "/sparql";
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		method         = exchange.getRequestMethod();
+		accept         = exchange.getRequestHeaders().getFirst("Accept");
+		acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+		if ( body == null ) {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+			return ;
+		}
+
+		exchange.getResponseHeaders().set( "Content-Type", contentType );
+		if ( gzip ) {
+			exchange.getResponseHeaders().set( "Content-Encoding", "gzip" );
+		}
+		exchange.sendResponseHeaders( 200, body.length );
+		try ( OutputStream out = exchange.getResponseBody() ) {
+			out.write(body);
+		}
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException {
+		val buffer = new ByteArrayOutputStream();
+		try ( GZIPOutputStream out = new GZIPOutputStream(buffer) ) {
+			out.write(bytes);
+		}
+
+		return buffer.toByteArray();
+	}
+
+	private static byte[] nTriplesOf(Model model) {
+		val out = new ByteArrayOutputStream();
+		model.write( out, "N-TRIPLES" );
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void execConstruct_readsGzippedNTriples() throws Exception {
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a, p, b);
+		expected.add(b, p, c);
+
+		contentType = "application/n-triples";
+		body        = gzip( nTriplesOf(expected) );
+		gzip        = true;
+
+		val sut = new NegotiatingQueryEngine( endpoint, "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }", true );
+
+		assertThat( sut.execConstruct(),          is(modelOf(expected)) );
+		assertThat( method,                       is("GET") );
+		assertThat( accept.split(",")[0],         is("application/n-triples") );
+		assertThat( acceptEncoding,               is("gzip, deflate") );
+		assertThat( sut.getContentType(),         is("application/n-triples") );
+		assertThat( sut.getWireBytes(),           is((long) body.length) );
+	}
+
+	@Test
+	public void execConstruct_postsLongQueryAndReadsPlainText() throws Exception {
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a, p, b);
+
+		contentType = "text/plain; charset=UTF-8";
+		body        = nTriplesOf(expected);
+		gzip        = false;
+
+		val query = "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o } # " + Strings.repeat("x", 3000);
+		val sut = new NegotiatingQueryEngine( endpoint, query, false );
+
+		assertThat( sut.execConstruct(), is(modelOf(expected)) );
+		assertThat( method,              is("POST") );
+		assertThat( acceptEncoding,      is((String) null) );
+	}
+
+	@Test
+	public void execConstruct_reportsStatusCode() throws Exception {
+		body = null;
+
+		try {
+			new NegotiatingQueryEngine( endpoint, "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }", true ).execConstruct();
+			fail();
+		} catch (QueryExceptionHTTP e) {
+			assertThat( e.getResponseCode(), is(503) );
+		}
+	}
+
+	@Test
+	public void crawler_recordsWireBytesPerFormat() throws Exception {
+		val types = ModelFactory.createDefaultModel();
+		types.add(a, RDF.type, c);
+
+		contentType = "application/n-triples";
+		body        = gzip( nTriplesOf(types) );
+		gzip        = true;
+
+		val crawler = new Crawler(endpoint);
+
+		assertThat( crawler.extractTypeOf( Collections.singleton(a) ), is(modelOf(types)) );
+		assertThat( crawler.getMetrics().getFormatBytes().get("application/n-triples"), is((long) body.length) );
+		assertThat( crawler.getMetrics().getBytes().get("TYPE"),                       is((long) body.length) );
+	}
+}
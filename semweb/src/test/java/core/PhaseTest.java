@@ -0,0 +1,78 @@
+package core;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import lombok.val;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+public class PhaseTest {
+
+	private static final Resource a = ResourceFactory.createResource("http://www.example.org/a");
+	private static final Resource b = ResourceFactory.createResource("http://www.example.org/b");
+	private static final Resource c = ResourceFactory.createResource("http://www.example.org/c");
+	private static final Property p = ResourceFactory.createProperty("http://www.example.org/p");
+
+	@Test
+	public void run_resolvesOnlyNewItems() throws Exception {
+		List<Set<Resource>> requests = new ArrayList<>();
+		val sut = new Phase( "subjects",
+				m -> m.listSubjects().toSet(),
+				items -> { requests.add(items); return ModelFactory.createDefaultModel(); } );
+
+		val first = ModelFactory.createDefaultModel();
+		first.add(a, p, b);
+		sut.offer(first);
+		sut.run();
+		sut.acknowledge();
+
+		val second = ModelFactory.createDefaultModel();
+		second.add(a, p, c);
+		second.add(b, p, c);
+		sut.offer(second);
+		sut.run();
+		sut.acknowledge();
+		sut.run();
+		sut.acknowledge();
+
+		assertThat( requests.size(), is(2) );
+		assertThat( requests.get(0), is((Set<Resource>) ImmutableSet.of(a)) );
+		assertThat( requests.get(1), is((Set<Resource>) ImmutableSet.of(b)) );
+	}
+
+	@Test
+	public void run_keepsInputPendingUntilAcknowledged() throws Exception {
+		val sut = new Phase( "subjects",
+				m -> m.listSubjects().toSet(),
+				items -> ModelFactory.createDefaultModel() );
+
+		val first = ModelFactory.createDefaultModel();
+		first.add(a, p, b);
+		sut.offer(first);
+		sut.run();
+
+		val second = ModelFactory.createDefaultModel();
+		second.add(b, p, c);
+		sut.offer(second);
+
+		assertThat( sut.getPending().size(), is(2L) );
+		assertThat( sut.getResolved().isEmpty(), is(true) );
+
+		sut.acknowledge();
+
+		assertThat( sut.getPending().contains(b, p, c), is(true) );
+		assertThat( sut.getPending().size(), is(1L) );
+		assertThat( sut.getResolved(), is((Set<Resource>) ImmutableSet.of(a)) );
+	}
+}
@@ -0,0 +1,53 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+
+import lombok.val;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+public class RdfsClosureTest {
+
+	private static final Resource a = ResourceFactory.createResource("http://www.example.org/a");
+	private static final Resource b = ResourceFactory.createResource("http://www.example.org/b");
+	private static final Resource C = ResourceFactory.createResource("http://www.example.org/C");
+	private static final Resource D = ResourceFactory.createResource("http://www.example.org/D");
+	private static final Resource E = ResourceFactory.createResource("http://www.example.org/E");
+	private static final Property p = ResourceFactory.createProperty("http://www.example.org/p");
+	private static final Property q = ResourceFactory.createProperty("http://www.example.org/q");
+
+	@Test
+	public void inferTypes_usesClassesAndPropertyInfo() throws Exception {
+		val sut = new RdfsClosure();
+
+		val schema = ModelFactory.createDefaultModel();
+		schema.add(C, RDFS.subClassOf,    D);
+		schema.add(p, RDFS.subPropertyOf, q);
+		schema.add(q, RDFS.domain,        C);
+		schema.add(q, RDFS.range,         E);
+		sut.getClasses()   .add( schema, Collections.emptySet() );
+		sut.getProperties().add( schema, Collections.emptySet() );
+		sut.addPropertyInfo(schema);
+
+		val data = ModelFactory.createDefaultModel();
+		data.add(a, p, b);
+		data.add(a, RDF.type, C);
+
+		val expected = ModelFactory.createDefaultModel();
+		expected.add(a, RDF.type, D);
+		expected.add(b, RDF.type, E);
+
+		assertThat( sut.inferTypes(data), is(modelOf(expected)) );
+	}
+}
@@ -0,0 +1,97 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import lombok.val;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+public class ResponseCacheTest {
+
+	private static final String ENDPOINT = "http://www.example.org/sparql";
+	private static final long   HOUR     = 60 * 60 * 1000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Model model;
+
+	@Before
+	public void setUp() {
+		model = ModelFactory.createDefaultModel();
+		model.add(
+				ResourceFactory.createResource("http://www.example.org/a"),
+				ResourceFactory.createProperty("http://www.example.org/p"),
+				ResourceFactory.createResource("http://www.example.org/b"));
+	}
+
+	@Test
+	public void getModel_returnsStoredModel() throws Exception {
+		val sut = new ResponseCache( folder.getRoot().toPath(), HOUR, Long.MAX_VALUE );
+		sut.putModel(ENDPOINT, "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }", model);
+
+		assertThat( sut.getModel(ENDPOINT, "CONSTRUCT  { ?s ?p ?o }\nWHERE { ?s ?p ?o } ").get(),
+				is(modelOf(model)) );
+		assertThat( sut.hitCount(),  is(1L) );
+		assertThat( sut.missCount(), is(0L) );
+	}
+
+	@Test
+	public void getModel_isKeyedByEndpoint() throws Exception {
+		val sut = new ResponseCache( folder.getRoot().toPath(), HOUR, Long.MAX_VALUE );
+		sut.putModel(ENDPOINT, "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }", model);
+
+		assertThat( sut.getModel("http://other/sparql", "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }").isPresent(),
+				is(false) );
+		assertThat( sut.missCount(), is(1L) );
+	}
+
+	@Test
+	public void getModel_expiresAfterTtl() throws Exception {
+		val sut = new ResponseCache( folder.getRoot().toPath(), 1, Long.MAX_VALUE );
+		sut.putModel(ENDPOINT, "q", model);
+		Thread.sleep(20);
+
+		assertThat( sut.getModel(ENDPOINT, "q").isPresent(), is(false) );
+	}
+
+	@Test
+	public void putModel_replacingEntryKeepsSize() throws Exception {
+		val sut = new ResponseCache( folder.getRoot().toPath(), HOUR, Long.MAX_VALUE );
+		sut.putModel(ENDPOINT, "q", model);
+		val once = sut.toString();
+
+		sut.putModel(ENDPOINT, "q", model);
+		sut.putModel(ENDPOINT, "q", model);
+
+		assertThat( sut.toString(), is(once) );
+	}
+
+	@Test
+	public void putModel_evictsLeastRecentlyUsed() throws Exception {
+		val probe = new ResponseCache( folder.newFolder().toPath(), HOUR, Long.MAX_VALUE );
+		probe.putModel(ENDPOINT, "q", model);
+		val entrySize = probe.toString().replaceAll(".*size = (\\d+) bytes", "$1");
+
+		val sut = new ResponseCache( folder.getRoot().toPath(), HOUR, Long.parseLong(entrySize) * 5 / 2 );
+		sut.putModel(ENDPOINT, "q1", model);
+		Thread.sleep(20);
+		sut.putModel(ENDPOINT, "q2", model);
+		Thread.sleep(20);
+		sut.getModel(ENDPOINT, "q1");
+		Thread.sleep(20);
+		sut.putModel(ENDPOINT, "q3", model);
+
+		assertThat( sut.getModel(ENDPOINT, "q1").isPresent(), is(true)  );
+		assertThat( sut.getModel(ENDPOINT, "q2").isPresent(), is(false) );
+		assertThat( sut.getModel(ENDPOINT, "q3").isPresent(), is(true)  );
+	}
+}
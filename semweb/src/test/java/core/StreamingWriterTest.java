@@ -0,0 +1,93 @@
+package core;
+
+import static core.IsModel.modelOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import lombok.val;
+
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+
+public class StreamingWriterTest {
+
+	private static final Resource a = ResourceFactory.createResource("http://www.example.org/a");
+	private static final Resource b = ResourceFactory.createResource("http://www.example.org/b");
+	private static final Resource c = ResourceFactory.createResource("http://www.example.org/c");
+	private static final Property p = ResourceFactory.createProperty("http://www.example.org/p");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Model read(Path path) {
+		val model = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(model, path.toString());
+
+		return model;
+	}
+
+	@Test
+	public void add_writesEachTripleOnce() throws Exception {
+		val path = folder.getRoot().toPath().resolve("out.nt");
+
+		val first = ModelFactory.createDefaultModel();
+		first.add(a, p, b);
+		first.add(b, p, ResourceFactory.createPlainLiteral("b"));
+		val second = ModelFactory.createDefaultModel();
+		second.add(a, p, b);
+		second.add(b, p, c);
+
+		try ( StreamingWriter sut = new StreamingWriter(path, 0) ) {
+			sut.add(first);
+			sut.add(second);
+
+			assertThat( sut.size(), is(3L) );
+		}
+
+		val expected = ModelFactory.createDefaultModel().add(first).add(second);
+		assertThat( read(path), is(modelOf(expected)) );
+		assertThat( Files.readAllLines(path).size(), is(3) );
+	}
+
+	@Test
+	public void snapshot_copiesWhatHasBeenWritten() throws Exception {
+		val path     = folder.getRoot().toPath().resolve("out.nt");
+		val snapshot = folder.getRoot().toPath().resolve("snapshot.nt");
+
+		val model = ModelFactory.createDefaultModel();
+		model.add(a, p, b);
+
+		try ( StreamingWriter sut = new StreamingWriter(path, Long.MAX_VALUE) ) {
+			sut.add(model);
+			sut.snapshot(snapshot);
+
+			assertThat( read(snapshot), is(modelOf(model)) );
+		}
+	}
+
+	@Test
+	public void flushesWhileNoTriplesArrive() throws Exception {
+		val path = folder.getRoot().toPath().resolve("out.nt");
+
+		try ( StreamingWriter sut = new StreamingWriter(path, 50) ) {
+			sut.add( ModelFactory.createDefaultModel().add(a, p, b) );
+
+			// 次の add を待たずに書き出される
+			for ( int i = 0; i < 100 && Files.size(path) == 0; i++ ) {
+				Thread.sleep(20);
+			}
+			assertThat( Files.readAllLines(path).size(), is(1) );
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package core;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class WorkersTest {
+
+	// outer の中で呼んだ map のタスクが，map を呼んだスレッドで動いたか
+	private static Set<Boolean> nestedInline(Consumer<Runnable> outer) {
+		Set<Boolean> inline = ConcurrentHashMap.newKeySet();
+		outer.accept( () -> {
+			Thread caller = Thread.currentThread();
+			Workers.map( Arrays.asList(1, 2, 3), 3, j -> inline.add( Thread.currentThread() == caller ) );
+		});
+
+		return inline;
+	}
+
+	@Test
+	public void map_runsNestedMapInWorkerThread() throws Exception {
+		Set<Boolean> inline = nestedInline( nested -> Workers.map( Arrays.asList(1, 2), 2, i -> {
+			nested.run();
+			return null;
+		}));
+
+		assertThat( inline, is( Collections.singleton(true) ) );
+	}
+
+	@Test
+	public void fanOut_keepsNestedMapInlineInsideWorker() throws Exception {
+		Set<Boolean> inline = nestedInline( nested -> Workers.map( Arrays.asList(1, 2), 2,
+				i -> Workers.fanOut( Arrays.asList("x", "y"), g -> {
+					nested.run();
+					return null;
+				})));
+
+		assertThat( inline, is( Collections.singleton(true) ) );
+	}
+
+	@Test
+	public void fanOut_runsNestedMapConcurrentlyOutsideWorker() throws Exception {
+		Set<Boolean> inline = nestedInline( nested -> Workers.fanOut( Arrays.asList("x", "y"), g -> {
+			nested.run();
+			return null;
+		}));
+
+		assertThat( inline, is( Collections.singleton(false) ) );
+	}
+}